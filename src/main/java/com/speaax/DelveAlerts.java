@@ -0,0 +1,317 @@
+package com.speaax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Threshold alerts on luck, expected drops and session levels, checked as each completion or drop
+ * is recorded.
+ *
+ * <p>Rules are indexed by the events that can move them: a completion only touches the rules whose
+ * items can drop at that level plus the level count rules, and a drop only touches the luck rules
+ * containing that item. Level 1 has no unique table, so its completions skip every item rule.
+ * Each rule's state lives in primitive arrays on the profile it watches, sized to the rule set and
+ * reset from the profile's current values whenever the rules change, so existing totals never
+ * alert on their own.</p>
+ *
+ * <p>Alerts have hysteresis so they don't flap: a luck alert re-arms only once luck is
+ * {@value #LUCK_HYSTERESIS} above its threshold again, and an expected drops alert that was passed
+ * by a reset only moves back down once expected drops are {@value #EXPECTED_HYSTERESIS} below the
+ * last multiple. Bulk changes such as scoreboard syncs aren't checked themselves and are picked up
+ * by the next event.</p>
+ */
+public class DelveAlerts
+{
+	static final double LUCK_HYSTERESIS = 0.5;
+	static final double EXPECTED_HYSTERESIS = 0.5;
+
+	enum Kind
+	{
+		LUCK_BELOW,        // Luck of the items falls below the threshold
+		EXPECTED_MULTIPLE, // Expected drops of the items reach each whole number
+		SESSION_LEVELS     // Levels completed this session reach the threshold
+	}
+
+	public static final class Rule
+	{
+		final Kind kind;
+		final String label;
+		final int[] itemIds;
+		final double threshold;
+
+		private Rule(Kind kind, String label, int[] itemIds, double threshold)
+		{
+			this.kind = kind;
+			this.label = label;
+			this.itemIds = itemIds;
+			this.threshold = threshold;
+		}
+
+		boolean sameAs(Rule other)
+		{
+			return kind == other.kind && label.equals(other.label) && Arrays.equals(itemIds, other.itemIds) && threshold == other.threshold;
+		}
+	}
+
+	public static Rule luckBelow(String label, int[] itemIds, double threshold)
+	{
+		return new Rule(Kind.LUCK_BELOW, label, itemIds.clone(), threshold);
+	}
+
+	public static Rule expectedMultiple(String label, int[] itemIds)
+	{
+		return new Rule(Kind.EXPECTED_MULTIPLE, label, itemIds.clone(), 1);
+	}
+
+	public static Rule sessionLevels(int levels)
+	{
+		return new Rule(Kind.SESSION_LEVELS, "Session", new int[0], levels);
+	}
+
+	/**
+	 * A rule set and the index from events to the rules they touch, replaced whole.
+	 */
+	private static final class Rules
+	{
+		final int version;
+		final int tableVersion;
+		final Rule[] rules;
+		// Rules touched by a completion at each level and by a drop of each item
+		final int[][] byLevel = new int[RollingStats.LEVEL_SLOTS][];
+		final int[][] byItem = new int[RollingStats.ITEM_IDS.length][];
+
+		Rules(int version, Rule[] rules)
+		{
+			// Built from one read of the table, so the index and its version agree
+			DelveRates.Table table = DelveRates.getTable();
+			this.version = version;
+			this.tableVersion = table.getVersion();
+			this.rules = rules;
+			for (int level = 0; level < byLevel.length; level++)
+			{
+				DelveRates.DropRates rates = table.forLevel(level);
+				List<Integer> touched = new ArrayList<>();
+				for (int i = 0; i < rules.length; i++)
+				{
+					if (rules[i].kind == Kind.SESSION_LEVELS || (rates != null && dropsAt(rates, rules[i].itemIds))) touched.add(i);
+				}
+				byLevel[level] = touched.stream().mapToInt(Integer::intValue).toArray();
+			}
+			for (int item = 0; item < byItem.length; item++)
+			{
+				List<Integer> touched = new ArrayList<>();
+				for (int i = 0; i < rules.length; i++)
+				{
+					if (rules[i].kind == Kind.LUCK_BELOW && contains(rules[i].itemIds, RollingStats.ITEM_IDS[item])) touched.add(i);
+				}
+				byItem[item] = touched.stream().mapToInt(Integer::intValue).toArray();
+			}
+		}
+
+		private static boolean dropsAt(DelveRates.DropRates rates, int[] itemIds)
+		{
+			for (int itemId : itemIds)
+			{
+				if (rates.getRate(itemId) > 0) return true;
+			}
+			return false;
+		}
+
+		private static boolean contains(int[] itemIds, int itemId)
+		{
+			for (int id : itemIds)
+			{
+				if (id == itemId) return true;
+			}
+			return false;
+		}
+	}
+
+	private final Consumer<String> notifier;
+	private volatile Rules rules = new Rules(0, new Rule[0]);
+
+	/**
+	 * @param notifier shows an alert, called on the thread recording events
+	 */
+	public DelveAlerts(Consumer<String> notifier)
+	{
+		this.notifier = notifier;
+	}
+
+	/**
+	 * Rule state computed for one profile, applied by {@link #apply} on the profile's writer.
+	 */
+	public static final class State
+	{
+		private final int version;
+		private final boolean[] armed;
+		private final double[] next;
+
+		private State(int version, int size)
+		{
+			this.version = version;
+			this.armed = new boolean[size];
+			this.next = new double[size];
+		}
+	}
+
+	/**
+	 * Replaces the rule set, unless it is unchanged so config edits elsewhere keep alert state.
+	 */
+	public synchronized void setRules(Rule... next)
+	{
+		Rules current = rules;
+		if (current.rules.length == next.length && current.tableVersion == DelveRates.getTable().getVersion())
+		{
+			boolean same = true;
+			for (int i = 0; i < next.length && same; i++)
+			{
+				same = current.rules[i].sameAs(next[i]);
+			}
+			if (same) return;
+		}
+		rules = new Rules(current.version + 1, next.clone());
+	}
+
+	/**
+	 * Rebuilds the event index after the rate table changed, which levels an item drops at may differ.
+	 */
+	public synchronized void reindex()
+	{
+		Rules current = rules;
+		rules = new Rules(current.version + 1, current.rules);
+	}
+
+	/**
+	 * Brings a profile's alert state up to date with the rules, called before an event is added to it.
+	 */
+	public void prepare(DelveCalculatorData.DelveProfile profile)
+	{
+		if (profile.getAlertVersion() == rules.version) return;
+		apply(profile, compute(profile, DelveRates.getTable(profile)));
+	}
+
+	/**
+	 * Arms every rule from the profile's counts under the given table, without alerting. Only reads
+	 * the profile, so it can run off the profile's writer thread.
+	 */
+	public State compute(DelveCalculatorData.DelveProfile profile, DelveRates.Table table)
+	{
+		Rules current = rules;
+		State state = new State(current.version, current.rules.length);
+		for (int i = 0; i < current.rules.length; i++)
+		{
+			Rule rule = current.rules[i];
+			switch (rule.kind)
+			{
+				case LUCK_BELOW:
+					state.armed[i] = DelveCalculator.getLuck(profile, table, rule.itemIds) >= rule.threshold;
+					break;
+				case EXPECTED_MULTIPLE:
+					state.next[i] = Math.floor(DelveCalculator.getExpected(profile, table, rule.itemIds)) + 1;
+					break;
+				case SESSION_LEVELS:
+					state.armed[i] = DelveCalculator.getTotalKills(profile) < rule.threshold;
+					break;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * @return false if the rules changed since the state was computed, leaving the profile to be
+	 * prepared again by its next event
+	 */
+	public boolean apply(DelveCalculatorData.DelveProfile profile, State state)
+	{
+		if (state.version != rules.version) return false;
+		profile.setAlertArmed(state.armed);
+		profile.setAlertNext(state.next);
+		profile.setAlertVersion(state.version);
+		return true;
+	}
+
+	/**
+	 * @param all the mode's All profile, after the completion was added
+	 * @param session the mode's Session profile, after the completion was added
+	 */
+	public void onLevel(DelveCalculatorData.DelveProfile all, DelveCalculatorData.DelveProfile session, int level)
+	{
+		Rules current = rules;
+		if (level < 0 || level >= current.byLevel.length) return;
+		for (int rule : current.byLevel[level])
+		{
+			check(current, rule, all, session);
+		}
+	}
+
+	public void onDrop(DelveCalculatorData.DelveProfile all, DelveCalculatorData.DelveProfile session, int itemId)
+	{
+		Rules current = rules;
+		int item = RollingStats.itemIndex(itemId);
+		if (item < 0) return;
+		for (int rule : current.byItem[item])
+		{
+			check(current, rule, all, session);
+		}
+	}
+
+	private void check(Rules current, int index, DelveCalculatorData.DelveProfile all, DelveCalculatorData.DelveProfile session)
+	{
+		Rule rule = current.rules[index];
+		DelveCalculatorData.DelveProfile profile = rule.kind == Kind.SESSION_LEVELS ? session : all;
+		// The rules changed after this profile was prepared, its state is reset by the next event
+		if (profile.getAlertVersion() != current.version) return;
+
+		boolean[] armed = profile.getAlertArmed();
+		double[] next = profile.getAlertNext();
+		switch (rule.kind)
+		{
+			case LUCK_BELOW:
+			{
+				double luck = DelveCalculator.getLuck(profile, rule.itemIds);
+				if (armed[index] && luck < rule.threshold)
+				{
+					armed[index] = false;
+					notifier.accept(String.format("%s luck is %+.2f, below %+.0f", rule.label, luck, rule.threshold));
+				}
+				else if (!armed[index] && luck >= rule.threshold + LUCK_HYSTERESIS)
+				{
+					armed[index] = true;
+				}
+				break;
+			}
+			case EXPECTED_MULTIPLE:
+			{
+				double expected = DelveCalculator.getExpected(profile, rule.itemIds);
+				if (expected >= next[index])
+				{
+					int multiple = (int) Math.floor(expected);
+					next[index] = multiple + 1;
+					notifier.accept(String.format("%s reached %dx the expected drop rate", rule.label, multiple));
+				}
+				else if (expected < next[index] - 1 - EXPECTED_HYSTERESIS)
+				{
+					next[index] = Math.floor(expected) + 1;
+				}
+				break;
+			}
+			case SESSION_LEVELS:
+			{
+				int levels = DelveCalculator.getTotalKills(profile);
+				if (armed[index] && levels >= rule.threshold)
+				{
+					armed[index] = false;
+					notifier.accept(String.format("%d delve levels completed this session", levels));
+				}
+				else if (!armed[index] && levels < rule.threshold)
+				{
+					armed[index] = true;
+				}
+				break;
+			}
+		}
+	}
+}
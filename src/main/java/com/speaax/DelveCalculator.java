@@ -0,0 +1,104 @@
+package com.speaax;
+
+import java.util.Map;
+
+/**
+ * Expected-drop and luck math over a {@link DelveCalculatorData.DelveProfile}. Item sets are
+ * passed as item ID arrays so callers decide which uniques count towards "any".
+ */
+public final class DelveCalculator
+{
+	private DelveCalculator() {}
+
+	public static int getKills(DelveCalculatorData.DelveProfile profile, int level)
+	{
+		return level == 9 ? profile.getWavesPast8() : profile.getLevelKills().getOrDefault(level, 0);
+	}
+
+	public static int getTotalKills(DelveCalculatorData.DelveProfile profile)
+	{
+		int total = profile.getWavesPast8();
+		for (int kills : profile.getLevelKills().values())
+		{
+			total += kills;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of drops of the item the profile's completions are expected to have given
+	 */
+	public static double getExpected(DelveCalculatorData.DelveProfile profile, int itemId)
+	{
+		return getExpected(profile, DelveRates.getTable(profile), itemId);
+	}
+
+	public static double getExpected(DelveCalculatorData.DelveProfile profile, DelveRates.Table rates, int itemId)
+	{
+		double expected = 0;
+		for (Map.Entry<Integer, DelveRates.DropRates> entry : rates.getDropRates().entrySet())
+		{
+			expected += getKills(profile, entry.getKey()) * entry.getValue().getRate(itemId);
+		}
+		return expected;
+	}
+
+	public static double getExpected(DelveCalculatorData.DelveProfile profile, int[] itemIds)
+	{
+		return getExpected(profile, DelveRates.getTable(profile), itemIds);
+	}
+
+	public static double getExpected(DelveCalculatorData.DelveProfile profile, DelveRates.Table rates, int[] itemIds)
+	{
+		double expected = 0;
+		for (int itemId : itemIds)
+		{
+			expected += getExpected(profile, rates, itemId);
+		}
+		return expected;
+	}
+
+	public static int getActual(DelveCalculatorData.DelveProfile profile, int[] itemIds)
+	{
+		int actual = 0;
+		for (int itemId : itemIds)
+		{
+			actual += profile.getObtainedUniques().getOrDefault(itemId, 0);
+		}
+		return actual;
+	}
+
+	/**
+	 * @return received minus expected drops, positive when ahead of the rate
+	 */
+	public static double getLuck(DelveCalculatorData.DelveProfile profile, int[] itemIds)
+	{
+		return getLuck(profile, DelveRates.getTable(profile), itemIds);
+	}
+
+	public static double getLuck(DelveCalculatorData.DelveProfile profile, DelveRates.Table rates, int[] itemIds)
+	{
+		return getActual(profile, itemIds) - getExpected(profile, rates, itemIds);
+	}
+
+	/**
+	 * @return the combined per-completion rate of the items, indexed by level (9 = waves past 8)
+	 */
+	public static double[] getLevelRates(DelveCalculatorData.DelveProfile profile, int[] itemIds)
+	{
+		return getLevelRates(DelveRates.getTable(profile), itemIds);
+	}
+
+	public static double[] getLevelRates(DelveRates.Table table, int[] itemIds)
+	{
+		double[] rates = new double[RollingStats.LEVEL_SLOTS];
+		for (Map.Entry<Integer, DelveRates.DropRates> entry : table.getDropRates().entrySet())
+		{
+			for (int itemId : itemIds)
+			{
+				rates[entry.getKey()] += entry.getValue().getRate(itemId);
+			}
+		}
+		return rates;
+	}
+}
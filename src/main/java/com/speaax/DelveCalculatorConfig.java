@@ -127,7 +127,173 @@ public interface DelveCalculatorConfig extends Config
     )
     default RewardDisplayMode domDisplay() { return RewardDisplayMode.SHOW; }
 
+    @ConfigItem(
+            keyName = "dropRateCorrections",
+            name = "Drop rate corrections",
+            description = "<html>Replaces wiki drop rates, for a game update the plugin hasn't caught up with yet." +
+                    "<br>One entry per level separated by ';', each the level then its overall, cloth, eye, treads and Dom chances," +
+                    "<br>for example 9:1/180,1/540,1/540,1/540,1/250. Leave empty for the wiki rates.</html>",
+            section = rewardSettings,
+            position = 11
+    )
+    default String dropRateCorrections() { return ""; }
+
+    // --- Session ---
+    @ConfigSection(
+            name = "Session",
+            description = "Configure when the Session tab starts counting from zero.",
+            position = 11,
+            closedByDefault = false
+    )
+    String sessionSettings = "sessionSettings";
+
+    enum SessionBoundary
+    {
+        CLIENT_RESTART, // A new session starts each time the client is opened.
+        IDLE_GAP,       // A session survives restarts until no delves are done for the idle gap.
+        MANUAL          // A session only ends when it is reset from the panel.
+    }
+
+    @ConfigItem(
+            keyName = "sessionBoundary",
+            name = "New session on",
+            description = "When the Session tab starts over. Sessions survive client crashes unless this is 'Client restart', and can always be reset from the Session tab.",
+            section = sessionSettings,
+            position = 12
+    )
+    default SessionBoundary sessionBoundary() { return SessionBoundary.CLIENT_RESTART; }
+
+    @ConfigItem(
+            keyName = "sessionIdleGap",
+            name = "Idle gap",
+            description = "How long without a level completion or drop ends the session when 'New session on' is 'Idle gap'.",
+            section = sessionSettings,
+            position = 13
+    )
+    @Units(Units.MINUTES)
+    default int sessionIdleGap()
+    {
+        return 60;
+    }
+
+    // --- Overlay ---
+    @ConfigSection(
+            name = "Overlay",
+            description = "In-game overlay shown while in a delve region.",
+            position = 14,
+            closedByDefault = false
+    )
+    String overlaySettings = "overlaySettings";
+
+    @ConfigItem(
+            keyName = "showOverlay",
+            name = "Show overlay",
+            description = "Shows the expected drops and luck of the uniques that aren't hidden in an overlay while in a delve region, following the panel's selected tab.",
+            section = overlaySettings,
+            position = 15
+    )
+    default boolean showOverlay()
+    {
+        return false;
+    }
+
+    // --- Alerts ---
+    @ConfigSection(
+            name = "Alerts",
+            description = "Notifications when luck, expected drops or session levels cross a threshold.",
+            position = 16,
+            closedByDefault = true
+    )
+    String alertSettings = "alertSettings";
+
+    enum AlertItem
+    {
+        OFF,
+        ANY_ITEM,
+        MOKHAIOTL_CLOTH,
+        EYE_OF_AYAK,
+        AVERNIC_TREADS,
+        DOM
+    }
+
+    @ConfigItem(
+            keyName = "luckAlertItem",
+            name = "Luck alert",
+            description = "Notifies when the all-time luck of this item drops below the threshold. It alerts again once luck has recovered half a drop above it.",
+            section = alertSettings,
+            position = 17
+    )
+    default AlertItem luckAlertItem() { return AlertItem.OFF; }
+
+    @ConfigItem(
+            keyName = "luckAlertThreshold",
+            name = "Luck threshold",
+            description = "Received minus expected drops below which the luck alert fires.",
+            section = alertSettings,
+            position = 18
+    )
+    @Range(min = -50, max = 0)
+    default int luckAlertThreshold()
+    {
+        return -2;
+    }
+
+    @ConfigItem(
+            keyName = "expectedAlertItem",
+            name = "Expected drops alert",
+            description = "Notifies each time the all-time expected drops of this item reach a whole number: 1x, 2x and so on.",
+            section = alertSettings,
+            position = 19
+    )
+    default AlertItem expectedAlertItem() { return AlertItem.OFF; }
+
+    @ConfigItem(
+            keyName = "sessionLevelAlert",
+            name = "Session levels alert",
+            description = "Notifies when this many levels have been completed this session. 0 turns it off.",
+            section = alertSettings,
+            position = 20
+    )
+    default int sessionLevelAlert()
+    {
+        return 0;
+    }
+
+    // --- Debug ---
+    @ConfigSection(
+            name = "Debug",
+            description = "Diagnostics for reporting performance problems.",
+            position = 20,
+            closedByDefault = true
+    )
+    String debugSettings = "debugSettings";
+
+    @ConfigItem(
+            keyName = "showMetrics",
+            name = "Show performance metrics",
+            description = "Shows per-handler latency percentiles and counters at the bottom of the panel, and logs them when the plugin stops.",
+            section = debugSettings,
+            position = 21
+    )
+    default boolean showMetrics()
+    {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "recordTrace",
+            name = "Record event trace",
+            description = "Records the chat messages and interfaces the plugin reads to .runelite/delve-calculator/traces, so a session can be replayed when reporting a bug.",
+            section = debugSettings,
+            position = 22
+    )
+    default boolean recordTrace()
+    {
+        return false;
+    }
+
     // --- Hidden Data ---
+    // Pre-sharding data, moved to the first account's RS profile config on login
     @ConfigItem(
             keyName = "killCountData",
             name = "",
@@ -164,4 +330,37 @@ public interface DelveCalculatorConfig extends Config
 
     @ConfigItem(keyName = "activeModeTab", name = "", description = "")
     void activeModeTab(String mode);
+
+    @ConfigItem(
+            keyName = "activeRecentWindow",
+            name = "Active Recent Window",
+            description = "The last selected window in the Recent tab.",
+            hidden = true
+    )
+    default String activeRecentWindow() { return "LAST_100"; }
+
+    @ConfigItem(keyName = "activeRecentWindow", name = "", description = "")
+    void activeRecentWindow(String window);
+
+    @ConfigItem(
+            keyName = "showAllModes",
+            name = "Show All Modes",
+            description = "Whether the panel last showed totals over every game mode.",
+            hidden = true
+    )
+    default boolean showAllModes() { return false; }
+
+    @ConfigItem(keyName = "showAllModes", name = "", description = "")
+    void showAllModes(boolean show);
+
+    @ConfigItem(
+            keyName = "plannerConfidence",
+            name = "Planner Confidence",
+            description = "The last confidence picked in the planner, in percent.",
+            hidden = true
+    )
+    default int plannerConfidence() { return 90; }
+
+    @ConfigItem(keyName = "plannerConfidence", name = "", description = "")
+    void plannerConfidence(int confidence);
 }
\ No newline at end of file
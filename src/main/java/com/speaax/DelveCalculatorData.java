@@ -12,6 +12,7 @@ import java.util.Map;
 public class DelveCalculatorData
 {
     private Map<String, DelveProfile> profiles = new HashMap<>();
+    private Map<String, RollingStats> rollingStats = new HashMap<>();
 
     @Data
     public static class DelveProfile
@@ -21,6 +22,18 @@ public class DelveCalculatorData
         private int wavesPast8;
         private Map<Integer, Integer> obtainedUniques = new HashMap<>();
 
+        // DelveAlerts state for this profile's counts, indexed by rule and never saved
+        private transient int alertVersion = -1;
+        private transient boolean[] alertArmed;
+        private transient double[] alertNext;
+        // Rate table this profile is shown with while DelveRateRecompute moves it to a new one, null for the current table
+        private transient volatile DelveRates.Table rates;
+        // DelveLuckScore state, per RollingStats.ITEM_IDS index under luckTable, null until built
+        private transient DelveRates.Table luckTable;
+        private transient double[] luckExpected;
+        private transient int[] luckDrops;
+        private transient double[] luckResiduals;
+
         public DelveProfile() {}
 
         public DelveProfile(String name, boolean initialize)
@@ -30,17 +43,57 @@ public class DelveCalculatorData
 
         public void addKills(int level, int count)
         {
-            levelKills.merge(level, count, Integer::sum);
+            synchronized (this)
+            {
+                levelKills.merge(level, count, Integer::sum);
+                DelveLuckScore.onKills(this, level, count);
+            }
         }
 
         public void addWave8()
         {
-            wavesPast8++;
+            synchronized (this)
+            {
+                wavesPast8++;
+                DelveLuckScore.onKills(this, 9, 1);
+            }
         }
 
         public void addDrop(int itemId)
         {
-            obtainedUniques.merge(itemId, 1, Integer::sum);
+            synchronized (this)
+            {
+                obtainedUniques.merge(itemId, 1, Integer::sum);
+                DelveLuckScore.onDrop(this, itemId);
+            }
+        }
+
+        /**
+         * Drops derived state after counts were replaced other than through the add methods.
+         */
+        public synchronized void invalidateLuck()
+        {
+            luckTable = null;
+        }
+
+        public DelveProfile copy()
+        {
+            DelveProfile copy = new DelveProfile(name, false);
+            copy.levelKills.putAll(levelKills);
+            copy.wavesPast8 = wavesPast8;
+            copy.obtainedUniques.putAll(obtainedUniques);
+            copy.rates = rates;
+            synchronized (this)
+            {
+                if (luckTable != null)
+                {
+                    copy.luckTable = luckTable;
+                    copy.luckExpected = luckExpected.clone();
+                    copy.luckDrops = luckDrops.clone();
+                    copy.luckResiduals = luckResiduals.clone();
+                }
+            }
+            return copy;
         }
     }
 }
\ No newline at end of file
@@ -1,13 +1,14 @@
 package com.speaax;
 
-import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
-import net.runelite.api.ItemID;
+import net.runelite.client.RuneLite;
+import net.runelite.client.config.ConfigManager;
 import net.runelite.client.game.ItemManager;
 import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.FontManager;
 import net.runelite.client.ui.PluginPanel;
 import net.runelite.client.util.ImageUtil;
+import net.runelite.client.util.QuantityFormatter;
 import net.runelite.client.ui.components.materialtabs.MaterialTab;
 import net.runelite.client.ui.components.materialtabs.MaterialTabGroup;
 
@@ -15,35 +16,75 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 public class DelveCalculatorPanel extends PluginPanel
 {
-	// Key used for Manual data storage in JSON: e.g. "STANDARD:MANUAL"
-	private String getManualProfileKey()
-	{
-		return currentGameMode + ":MANUAL";
-	}
+	private static final File HISTORY_DIR = new File(RuneLite.RUNELITE_DIR, "delve-calculator");
+	private static final String CONFIG_GROUP = "delvecalculator";
+	private static final String DATA_KEY = "killCountData";
+	private static final int EVENT_QUEUE_CAPACITY = 1024;
+	private static final long CLIENT_START = ManagementFactory.getRuntimeMXBean().getStartTime();
+	private static final long CLIENT_ID = DelveCounterStore.newClientId();
+	private static final long COUNTER_POLL_SECONDS = 30;
+	private static final int CLOSE_FLUSH_ATTEMPTS = 5;
 
 	private final DelveCalculatorPlugin plugin;
 	private final ItemManager itemManager;
 	private final DelveCalculatorConfig config;
-	private final Gson gson;
-
-	private final JLabel totalKillsLabel;
-	private final JPanel progressPanel;
-	private final JPanel noDataSectionPanel;
+	private final ConfigManager configManager;
+	private final DelveMetrics metrics;
+	private final DelvePriceCache prices;
+	private final DelveOverlay overlay;
+	private final DelveSnapshotCodec snapshotCodec;
+	private final DelveTracker tracker;
+	private final DelveAlerts alerts;
+	private final DelveEventQueue events;
+
+	private JLabel totalKillsLabel;
+	private JPanel progressPanel;
+	private JPanel noDataSectionPanel;
 	private final MaterialTabGroup viewTabGroup = new MaterialTabGroup();
 	private final MaterialTabGroup modeTabGroup = new MaterialTabGroup();
 
 	private final Map<Integer, JLabel> levelValueLabels = new HashMap<>();
 	private final Map<String, ProgressRow> progressRows = new HashMap<>();
+	// Joint luck percentile and score, below the unique rows
+	private final CustomProgressBar jointLuckBar = new CustomProgressBar();
+	private final JLabel jointLuckLabel = createExpectedLabel();
+	// Seen and wiki rate labels per reward row, in display order
+	private final Map<String, JLabel[]> rateLabels = new LinkedHashMap<>();
+	// Expected and received GP per unique in display order, then the total and GP/hour rows
+	private final ValueRow[] valueRows = new ValueRow[DelveRates.getUniqueDropsMap().size()];
+	private final ValueRow valueTotalRow = new ValueRow("Total", null, 0);
+	private final ValueRow gpPerHourRow = new ValueRow("GP/hr", null, 0);
+	// Per-unique totals of the profile being shown, by RollingStats.ITEM_IDS index, EDT only
+	private final double[] shownExpected = new double[RollingStats.ITEM_IDS.length];
+	private final int[] shownReceived = new int[RollingStats.ITEM_IDS.length];
+	// Display mode per reward, rebuilt by refreshDisplayModes when the config changes
+	private volatile Map<String, DelveCalculatorConfig.RewardDisplayMode> displayModes;
+	// Time per level from the last solved depth strategy, EDT only
+	private double[] levelMillis;
 	private final List<MaterialTab> modeTabs = new ArrayList<>();
+	private final Map<String, DelveHistory> histories = new ConcurrentHashMap<>();
 
 	private static class ProgressRow
 	{
@@ -53,6 +94,86 @@ public class DelveCalculatorPanel extends PluginPanel
 		ImageIcon originalIcon;
 	}
 
+	/**
+	 * Labels of a value row and the amounts they show. Text is only formatted when an amount
+	 * changes, so refreshes that change nothing don't allocate. EDT only.
+	 */
+	private static class ValueRow
+	{
+		// Amounts aren't negative, so this shows as "-" while prices are missing
+		static final long NO_VALUE = -1;
+
+		final JLabel[] labels; // Name, expected, received
+		final String itemName;
+		final int itemId;
+		// RollingStats.ITEM_IDS index, -1 for the total rows
+		final int item;
+		long expected = NO_VALUE;
+		long received = NO_VALUE;
+		// Price shown in the name tooltip, unset until the first refresh
+		long price = Long.MIN_VALUE;
+
+		ValueRow(String shortName, String itemName, int itemId)
+		{
+			this.labels = new JLabel[]{new JLabel(shortName), new JLabel("-"), new JLabel("-")};
+			this.itemName = itemName;
+			this.itemId = itemId;
+			this.item = RollingStats.itemIndex(itemId);
+		}
+
+		void setAmounts(long nextExpected, long nextReceived)
+		{
+			if (nextExpected != expected)
+			{
+				expected = nextExpected;
+				labels[1].setText(format(nextExpected));
+			}
+			if (nextReceived != received)
+			{
+				received = nextReceived;
+				labels[2].setText(format(nextReceived));
+			}
+		}
+
+		void setPrice(long nextPrice)
+		{
+			if (nextPrice == price) return;
+			price = nextPrice;
+			labels[0].setToolTipText(nextPrice == NO_VALUE ? "Prices load once logged in" : "GE price " + format(nextPrice));
+		}
+
+		void setVisible(boolean visible)
+		{
+			for (JLabel label : labels)
+			{
+				label.setVisible(visible);
+			}
+		}
+
+		private static String format(long value)
+		{
+			return value == NO_VALUE ? "-" : QuantityFormatter.quantityToStackSize(value);
+		}
+	}
+
+	/**
+	 * What one refresh shows. Built on the executor from a copy of the selected profile, so it
+	 * doesn't change while the EDT reads it.
+	 */
+	private static class View
+	{
+		final DelveCalculatorData.DelveProfile profile;
+		final String mode;
+		final DelveHistory history;
+
+		View(DelveCalculatorData.DelveProfile profile, String mode, DelveHistory history)
+		{
+			this.profile = profile;
+			this.mode = mode;
+			this.history = history;
+		}
+	}
+
 	public static class CustomProgressBar extends JPanel
 	{
 		private int value = 0;
@@ -166,28 +287,113 @@ public class DelveCalculatorPanel extends PluginPanel
 		}
 	}
 
-	private DelveCalculatorData data = new DelveCalculatorData();
-	private String currentGameMode = "STANDARD";
-	private ViewTab currentView = ViewTab.ALL;
+	// Only the logged-in account's shard is held, until then nothing is loaded or saved
+	private volatile DelveCalculatorData data = new DelveCalculatorData();
+	private volatile File historyDir;
+	private String profileKey;
+	private DelveSessionStore session;
+	private boolean sessionDirty;
+	// Counts shared with other clients on the same account, only used on the executor
+	private DelveCounterStore counterStore;
+	private boolean countersMerged;
+	private final ScheduledFuture<?> counterPoll;
+	private volatile String currentGameMode = "STANDARD";
+	// The selected profile, chosen on the EDT and read by the executor when it publishes a view
+	private volatile ViewTab currentView = ViewTab.ALL;
+	private volatile boolean allModes;
+	private volatile RollingStats.Window recentWindow = RollingStats.Window.LAST_100;
 	private ModeTab currentMode = ModeTab.EXPECTED;
-
-	private final JPanel manualResetPanel;
-
-	public enum ViewTab { ALL, SESSION, MANUAL }
+	// Last view published by the executor, the only state of the profiles the EDT reads
+	private volatile View view;
+	private final AtomicBoolean refreshQueued = new AtomicBoolean();
+
+	private JPanel manualResetPanel;
+	private JPanel sessionResetPanel;
+	private final JLabel dataStatusLabel = new JLabel(" ");
+	private final JTextArea metricsArea = new JTextArea();
+	private JPanel recentWindowPanel;
+	private final JComboBox<RollingStats.Window> recentWindowBox = new JComboBox<>(RollingStats.Window.values());
+	private final JCheckBox allModesBox = new JCheckBox("All modes");
+	private final LuckChart luckChart = new LuckChart();
+	private final JComboBox<String> chartItemBox = new JComboBox<>(new String[]{"Any Item", "Mokhaiotl cloth", "Eye of ayak (uncharged)", "Avernic treads", "Dom"});
+	private final JComboBox<LuckChart.Axis> chartAxisBox = new JComboBox<>(LuckChart.Axis.values());
+	private final DelvePlanner planner = new DelvePlanner();
+	private final JComboBox<String> plannerItemBox = new JComboBox<>(new String[]{"Any Item", "Mokhaiotl cloth", "Eye of ayak (uncharged)", "Avernic treads", "Dom"});
+	private final JSlider plannerSlider = new JSlider(50, 99, 90);
+	private final JLabel plannerConfidenceLabel = new JLabel();
+	private final JLabel plannerResultLabel = new JLabel(" ");
+	// Level mix the planner answers for, the active view's profile as of the last refresh
+	private DelveCalculatorData.DelveProfile plannerProfile;
+	// Rate table of that profile, for the chart and the depth strategy
+	private DelveRates.Table shownRates = DelveRates.getTable();
+	private final DelveDepthStrategy depthStrategy = new DelveDepthStrategy();
+	private final JLabel strategyLabel = new JLabel(" ");
+	private final JLabel strategyRateLabel = new JLabel(" ");
+	// EDT only, a refresh while the strategy is being solved is picked up when it finishes
+	private boolean strategyRunning;
+	private boolean strategyPending;
+
+	public enum ViewTab { ALL, SESSION, MANUAL, RECENT }
+	// Unique names by DelveCalculatorConfig.AlertItem
+	private static final String[] ALERT_ITEM_NAMES = {null, "Any Item", "Mokhaiotl cloth", "Eye of ayak (uncharged)", "Avernic treads", "Dom"};
+	private static final String[] OVERLAY_TITLES = {"Delve: all time", "Delve: session", "Delve: since reset", "Delve: recent"};
 	public enum ModeTab { EXPECTED, RECEIVED }
 
-	public DelveCalculatorPanel(DelveCalculatorPlugin plugin, DelveCalculatorConfig config, Gson gson)
+	public DelveCalculatorPanel(DelveCalculatorPlugin plugin, DelveCalculatorConfig config)
 	{
 		this.plugin = plugin;
 		this.itemManager = plugin.getItemManager();
 		this.config = config;
-		this.gson = gson;
+		this.configManager = plugin.getConfigManager();
+		this.metrics = plugin.getMetrics();
+		this.prices = plugin.getPrices();
+		this.overlay = plugin.getOverlay();
+		this.snapshotCodec = new DelveSnapshotCodec();
 		this.currentGameMode = plugin.getCurrentGameMode();
+		loadViewState();
+		this.tracker = new DelveTracker(this::getData, plugin::getSessionProfile, this::getHistory);
+		// Alerts are checked on the executor, notifications are shown from the client thread
+		this.alerts = new DelveAlerts(message -> plugin.getClientThread().invokeLater(() -> plugin.getNotifier().notify(message)));
+		tracker.setAlerts(alerts);
+		refreshDisplayModes();
+		configureAlerts();
+		applyDropRates();
+		// Profiles are only written on the executor, which applies queued events in batches
+		this.events = new DelveEventQueue(EVENT_QUEUE_CAPACITY, plugin.getExecutor(), new EventHandler(), metrics);
+		// Picks up kills from another client on the same account while this one is idle
+		this.counterPoll = plugin.getExecutor().scheduleWithFixedDelay(this::pollCounters, COUNTER_POLL_SECONDS, COUNTER_POLL_SECONDS, TimeUnit.SECONDS);
 
 		setBorder(new EmptyBorder(10, 10, 10, 10));
 		setBackground(ColorScheme.DARK_GRAY_COLOR);
 		setLayout(new BorderLayout());
+		// Data is loaded per account on login and the Swing tree waits until the panel is first shown
+		requestRefresh();
+	}
+
+	// Read before the panel is built, since the executor publishes the selected view from the start
+	private void loadViewState()
+	{
+		try {
+			this.currentView = ViewTab.valueOf(config.activeViewTab());
+		} catch (Exception e) { this.currentView = ViewTab.ALL; }
+		try {
+			this.currentMode = ModeTab.valueOf(config.activeModeTab());
+		} catch (Exception e) { this.currentMode = ModeTab.EXPECTED; }
+		try {
+			this.recentWindow = RollingStats.Window.valueOf(config.activeRecentWindow());
+		} catch (Exception e) { this.recentWindow = RollingStats.Window.LAST_100; }
+		this.allModes = config.showAllModes();
+	}
 
+	@Override
+	public void onActivate()
+	{
+		if (totalKillsLabel == null) buildPanel();
+		updateAllUI();
+	}
+
+	private void buildPanel()
+	{
 		JPanel contentPanel = new JPanel();
 		contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.Y_AXIS));
 		contentPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
@@ -207,13 +413,15 @@ public class DelveCalculatorPanel extends PluginPanel
 		addTab(viewTabGroup, "All", () -> setView(ViewTab.ALL));
 		addTab(viewTabGroup, "Session", () -> setView(ViewTab.SESSION));
 		addTab(viewTabGroup, "Manual", () -> setView(ViewTab.MANUAL));
+		addTab(viewTabGroup, "Recent", () -> setView(ViewTab.RECENT));
 		mainHeader.add(viewTabGroup, BorderLayout.CENTER);
 
 		JLabel viewHelpLabel = createCircularHelpLabel();
 		viewHelpLabel.setToolTipText("<html>" +
 				"<b>All:</b> All-time data mirrored from the in-game scoreboard.<br>" +
-				"<b>Session:</b> Data tracked since opening the client.<br>" +
-				"<b>Manual:</b> Custom data pool that can be reset at any time.</html>");
+				"<b>Session:</b> Data tracked since the session started, see the Session settings.<br>" +
+				"<b>Manual:</b> Custom data pool that can be reset at any time.<br>" +
+				"<b>Recent:</b> Sliding window over your latest levels or hours.</html>");
 		
 		JPanel viewHelpContainer = new JPanel(new GridBagLayout());
 		viewHelpContainer.setBackground(ColorScheme.DARKER_GRAY_COLOR);
@@ -221,6 +429,27 @@ public class DelveCalculatorPanel extends PluginPanel
 		viewHelpContainer.add(viewHelpLabel);
 		mainHeader.add(viewHelpContainer, BorderLayout.EAST);
 
+		// All Modes Toggle
+		JPanel allModesPanel = new JPanel(new BorderLayout());
+		allModesPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		allModesPanel.setBorder(new EmptyBorder(0, 5, 5, 5));
+		allModesBox.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		allModesBox.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		allModesBox.setFont(FontManager.getRunescapeSmallFont());
+		allModesBox.setFocusPainted(false);
+		allModesBox.setToolTipText("Show totals over every game mode (standard, seasonal and so on) instead of the current one.");
+		allModesBox.addActionListener(e -> setAllModes(allModesBox.isSelected()));
+		allModesPanel.add(allModesBox, BorderLayout.WEST);
+
+		// Recent Window Selector
+		recentWindowPanel = new JPanel(new BorderLayout());
+		recentWindowPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		recentWindowPanel.setBorder(new EmptyBorder(0, 5, 5, 5));
+		recentWindowBox.setFont(FontManager.getRunescapeFont());
+		recentWindowBox.addActionListener(e -> setRecentWindow((RollingStats.Window) recentWindowBox.getSelectedItem()));
+		recentWindowPanel.add(recentWindowBox, BorderLayout.CENTER);
+		recentWindowPanel.setVisible(false);
+
 		// Kill Counts Panel
 		JPanel killCountsPanel = new JPanel();
 		killCountsPanel.setLayout(new BoxLayout(killCountsPanel, BoxLayout.Y_AXIS));
@@ -285,6 +514,14 @@ public class DelveCalculatorPanel extends PluginPanel
 		rewardSection.setBackground(ColorScheme.DARKER_GRAY_COLOR);
 		rewardSection.add(modeHeader);
 		rewardSection.add(progressPanel);
+		rewardSection.add(createRatePanel());
+		rewardSection.add(createValuePanel());
+
+		// Luck Over Time Chart
+		JPanel chartSection = createChartSection();
+
+		// Completions Planner
+		JPanel plannerSection = createPlannerSection();
 
 		// Manual Reset Button
 		manualResetPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
@@ -297,32 +534,62 @@ public class DelveCalculatorPanel extends PluginPanel
 		manualResetPanel.add(resetButton);
 		manualResetPanel.setVisible(false);
 
+		// Session Reset Button
+		sessionResetPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+		sessionResetPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		JButton sessionResetButton = new JButton("Start New Session");
+		sessionResetButton.setBackground(new Color(150, 0, 0)); // Dark red
+		sessionResetButton.setForeground(Color.WHITE);
+		sessionResetButton.setFont(FontManager.getRunescapeFont());
+		sessionResetButton.addActionListener(e -> confirmResetSession());
+		sessionResetPanel.add(sessionResetButton);
+		sessionResetPanel.setVisible(false);
+
+		// Debug Metrics
+		metricsArea.setEditable(false);
+		metricsArea.setLineWrap(true);
+		metricsArea.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		metricsArea.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		metricsArea.setFont(FontManager.getRunescapeSmallFont());
+		metricsArea.setBorder(new EmptyBorder(5, 5, 5, 5));
+		metricsArea.setVisible(false);
+
+		// Data Import / Export
+		JPanel dataSection = createDataSection();
+
 		// Add components to main panel
 		add(titleLabel, BorderLayout.NORTH);
 		contentPanel.add(mainHeader);
+		contentPanel.add(allModesPanel);
+		contentPanel.add(recentWindowPanel);
 		contentPanel.add(killCountsPanel);
 		contentPanel.add(Box.createVerticalStrut(10));
 
 		contentPanel.add(rewardSection);
 		contentPanel.add(Box.createVerticalStrut(10));
+		contentPanel.add(chartSection);
+		contentPanel.add(Box.createVerticalStrut(10));
+		contentPanel.add(plannerSection);
+		contentPanel.add(Box.createVerticalStrut(10));
 		contentPanel.add(noDataSectionPanel);
 		contentPanel.add(manualResetPanel);
+		contentPanel.add(sessionResetPanel);
+		contentPanel.add(Box.createVerticalStrut(10));
+		contentPanel.add(dataSection);
+		contentPanel.add(Box.createVerticalStrut(10));
+		contentPanel.add(metricsArea);
 		
 		add(contentPanel, BorderLayout.CENTER);
 
 		// Load initial tab states
-		try {
-			this.currentView = ViewTab.valueOf(config.activeViewTab());
-		} catch (Exception e) { this.currentView = ViewTab.ALL; }
-		try {
-			this.currentMode = ModeTab.valueOf(config.activeModeTab());
-		} catch (Exception e) { this.currentMode = ModeTab.EXPECTED; }
+		recentWindowBox.setSelectedItem(recentWindow);
+		plannerSlider.setValue(config.plannerConfidence());
+		allModesBox.setSelected(allModes);
 
 		viewTabGroup.select(viewTabGroup.getTab(currentView.ordinal()));
 		modeTabGroup.select(modeTabGroup.getTab(currentMode.ordinal()));
 
-		loadData();
-		updateAllUI();
+		revalidate();
 	}
 
 	private void addTab(MaterialTabGroup group, String title, Runnable onSelect)
@@ -340,7 +607,22 @@ public class DelveCalculatorPanel extends PluginPanel
 	{
 		this.currentView = view;
 		config.activeViewTab(view.name());
-		if (totalKillsLabel != null) updateAllUI();
+		requestRefresh();
+	}
+
+	private void setAllModes(boolean show)
+	{
+		this.allModes = show;
+		config.showAllModes(show);
+		requestRefresh();
+	}
+
+	private void setRecentWindow(RollingStats.Window window)
+	{
+		if (window == null) return;
+		this.recentWindow = window;
+		config.activeRecentWindow(window.name());
+		requestRefresh();
 	}
 
 	private void setMode(ModeTab mode)
@@ -365,90 +647,369 @@ public class DelveCalculatorPanel extends PluginPanel
 		if (totalKillsLabel != null) updateAllUI();
 	}
 
-	private void loadData()
+	/**
+	 * Loads the shard for the account now logged in, in the background. Queued events for the
+	 * previous account are applied and saved first, since both run on the executor in order.
+	 */
+	public void switchAccount(long accountHash)
+	{
+		plugin.getExecutor().execute(() -> loadAccount(accountHash));
+	}
+
+	private void loadAccount(long accountHash)
+	{
+		String key = configManager.getRSProfileKey();
+		if (key == null || key.equals(profileKey)) return;
+
+		long start = System.nanoTime();
+		File accountDir = new File(HISTORY_DIR, String.valueOf(accountHash));
+		String stored = configManager.getConfiguration(CONFIG_GROUP, key, DATA_KEY);
+		boolean migrated = false;
+		if ((stored == null || stored.isEmpty()) && !config.killCountData().isEmpty())
+		{
+			// Data from before sharding goes to the first account that logs in
+			stored = config.killCountData();
+			migrateLegacyHistory(accountDir);
+			migrated = true;
+		}
+
+		DelveCalculatorData loaded = decodeStoredData(stored);
+		profileKey = key;
+		historyDir = accountDir;
+		histories.clear();
+		clearSessionProfiles();
+		data = loaded;
+		loadCounters(accountDir);
+		getHistory(currentGameMode);
+		loadSession(accountDir);
+		tracker.rebuildAllModes();
+		metrics.record(DelveMetrics.Probe.LOAD_DATA, start);
+
+		if (migrated)
+		{
+			saveData();
+			configManager.unsetConfiguration(CONFIG_GROUP, DATA_KEY);
+		}
+		requestRefresh();
+	}
+
+	private void loadCounters(File accountDir)
+	{
+		counterStore = new DelveCounterStore(accountDir, CLIENT_ID);
+		countersMerged = false;
+		tracker.setStore(null);
+		flushCounters();
+	}
+
+	// The store wins over the config blob, which only holds what this client saved last. Until this
+	// first merge gets the file lock, events only update the profiles.
+	private boolean mergeCounters() throws IOException
+	{
+		countersMerged = true;
+		tracker.setStore(counterStore);
+		if (counterStore.isEmpty())
+		{
+			tracker.seedStore();
+			counterStore.flush();
+			return false;
+		}
+		tracker.applyStore(counterStore.getProfiles());
+		return true;
+	}
+
+	/**
+	 * Merges counts with other clients and applies theirs to the profiles. If another client holds
+	 * the file, nothing is merged and the next poll tries again.
+	 *
+	 * @return true if another client changed a profile
+	 */
+	private boolean flushCounters()
 	{
-		String json = config.killCountData();
-		if (json == null || json.isEmpty()) return;
+		if (counterStore == null) return false;
+		try
+		{
+			Set<String> changed = counterStore.flush();
+			if (changed == null) return false;
+			if (!countersMerged) return mergeCounters();
+			tracker.applyStore(changed);
+			return !changed.isEmpty();
+		}
+		catch (IOException e)
+		{
+			log.debug("Error merging delve counters", e);
+			return false;
+		}
+	}
+
+	private void pollCounters()
+	{
+		if (counterStore == null || !(counterStore.hasExternalChanges() || counterStore.isFlushPending())) return;
+		if (flushCounters())
+		{
+			saveData();
+			requestRefresh();
+		}
+	}
+
+	/**
+	 * Stops polling and writes any counts not yet merged, called when the plugin stops.
+	 */
+	public void close()
+	{
+		counterPoll.cancel(false);
+		plugin.getExecutor().execute(() -> closeCounters(CLOSE_FLUSH_ATTEMPTS));
+	}
+
+	// Retried every second while another client holds the file, so the last counts still get merged
+	private void closeCounters(int attempts)
+	{
+		flushCounters();
+		if (counterStore != null && counterStore.isFlushPending() && attempts > 1)
+		{
+			plugin.getExecutor().schedule(() -> closeCounters(attempts - 1), 1, TimeUnit.SECONDS);
+			return;
+		}
+		tracker.setStore(null);
+		counterStore = null;
+	}
+
+	// A resumed session is rebuilt by replaying each mode's history since the session started
+	private void loadSession(File accountDir)
+	{
+		long now = System.currentTimeMillis();
+		session = DelveSessionStore.load(new File(accountDir, "session.dat"));
+		if (resumeSession(now))
+		{
+			File[] files = accountDir.listFiles((dir, name) -> name.endsWith(".history"));
+			if (files != null)
+			{
+				for (File file : files)
+				{
+					String mode = file.getName().substring(0, file.getName().length() - ".history".length());
+					session.replay(getHistory(mode), tracker.getSessionProfile(mode));
+				}
+			}
+		}
+		else
+		{
+			session.reset(now);
+		}
+		session.save();
+	}
+
+	// Session profiles live in the plugin, the tracker only keeps their sum
+	private void clearSessionProfiles()
+	{
+		plugin.clearSessionProfiles();
+		tracker.clearSessions();
+	}
+
+	private static void migrateLegacyHistory(File accountDir)
+	{
+		File[] files = HISTORY_DIR.listFiles((dir, name) -> name.endsWith(".history"));
+		if (files == null || files.length == 0) return;
+		if (!accountDir.isDirectory() && !accountDir.mkdirs()) return;
+		for (File file : files)
+		{
+			if (!file.renameTo(new File(accountDir, file.getName())))
+			{
+				log.debug("Unable to move delve history {} to {}", file, accountDir);
+			}
+		}
+	}
+
+	private DelveCalculatorData decodeStoredData(String stored)
+	{
+		if (stored == null || stored.isEmpty()) return new DelveCalculatorData();
 		try {
-			this.data = gson.fromJson(json, DelveCalculatorData.class);
-			if (this.data == null) this.data = new DelveCalculatorData();
+			DelveCalculatorData loaded = snapshotCodec.decode(stored);
+			if (loaded != null) return loaded;
 		} catch (Exception e) { log.debug("Error loading data", e); }
+		return new DelveCalculatorData();
 	}
 
-	private void saveData()
+	private DelveCalculatorData getData()
 	{
-		config.killCountData(gson.toJson(data));
+		return data;
 	}
 
-	public void switchGameMode(String mode)
+	// Runs on the executor, after the account's shard was loaded
+	private void saveData()
 	{
-		this.currentGameMode = mode;
-		SwingUtilities.invokeLater(this::updateAllUI);
+		if (profileKey == null) return;
+		long start = System.nanoTime();
+		String encoded = snapshotCodec.encode(getData());
+		configManager.setConfiguration(CONFIG_GROUP, profileKey, DATA_KEY, encoded);
+		metrics.add(DelveMetrics.Counter.BYTES_PERSISTED, encoded.length());
+		metrics.record(DelveMetrics.Probe.SAVE_DATA, start);
 	}
 
-	// Unified update method for All, Manual, and Session profiles
-	private void updateProfiles(Consumer<DelveCalculatorData.DelveProfile> action)
+	/**
+	 * Publishes the selected profile on the executor and shows it on the EDT. Requests made before
+	 * the executor gets to it are coalesced into one.
+	 */
+	public void requestRefresh()
 	{
-		// 1. All (Persistent Code)
-		DelveCalculatorData.DelveProfile allProfile = data.getProfiles().computeIfAbsent(currentGameMode, k -> new DelveCalculatorData.DelveProfile(currentGameMode, true));
-		action.accept(allProfile);
+		metrics.increment(DelveMetrics.Counter.REFRESH_REQUESTED);
+		if (!refreshQueued.compareAndSet(false, true)) return;
+		plugin.getExecutor().execute(() -> {
+			refreshQueued.set(false);
+			publishView();
+		});
+	}
 
-		// 2. Manual (Persistent Code : MANUAL)
-		DelveCalculatorData.DelveProfile manualProfile = data.getProfiles().computeIfAbsent(getManualProfileKey(), k -> new DelveCalculatorData.DelveProfile("Manual", true));
-		action.accept(manualProfile);
+	// Runs on the executor, the only thread that writes profiles, so the copy is never torn. The
+	// overlay is fed here since the panel may never be opened while it is shown. A history that
+	// isn't loaded yet is published as null, so the chart shows a placeholder while it loads.
+	private void publishView()
+	{
+		String mode = currentGameMode;
+		ViewTab shownView = currentView;
+		DelveCalculatorData.DelveProfile profile = copyActiveProfile(shownView, mode);
+		overlay.update(OVERLAY_TITLES[shownView.ordinal()], profile, displayModes);
+		DelveHistory history = histories.get(mode);
+		view = new View(profile, mode, history);
+		SwingUtilities.invokeLater(this::updateAllUI);
+		if (history == null)
+		{
+			getHistory(mode);
+			requestRefresh();
+		}
+	}
 
-		// 3. Session (InMemory)
-		DelveCalculatorData.DelveProfile sessionProfile = plugin.getSessionProfile(currentGameMode);
-		action.accept(sessionProfile);
+	public void switchGameMode(String mode)
+	{
+		this.currentGameMode = mode;
+		requestRefresh();
+	}
 
-		saveData();
-		SwingUtilities.invokeLater(this::updateAllUI);
+	// Executor only, a history is read from its file the first time its mode is asked for
+	private DelveHistory getHistory(String mode)
+	{
+		File dir = historyDir;
+		return histories.computeIfAbsent(mode, k -> DelveHistory.load(dir == null ? null : new File(dir, k + ".history")));
 	}
 
 	public void incrementFloorKills(String mode, int floor)
 	{
 		// Ensure we are operating on the correct mode context
 		if (!mode.equals(currentGameMode)) return; 
-		updateProfiles(p -> p.addKills(floor, 1));
+		events.publish(DelveEventQueue.Type.LEVEL, mode, floor, System.currentTimeMillis(), null);
 	}
 
 	public void incrementWavesPast8(String mode)
 	{
 		// Ensure we are operating on the correct mode context
 		if (!mode.equals(currentGameMode)) return;
-		updateProfiles(DelveCalculatorData.DelveProfile::addWave8);
+		events.publish(DelveEventQueue.Type.LEVEL, mode, 9, System.currentTimeMillis(), null);
 	}
 
 	public void recordDrop(String mode, int itemId)
 	{
 		// Ensure we are operating on the correct mode context
 		if (!mode.equals(currentGameMode)) return;
-		updateProfiles(p -> p.addDrop(itemId));
+		events.publish(DelveEventQueue.Type.DROP, mode, itemId, System.currentTimeMillis(), null);
+	}
+
+	public void recordDeath(String mode)
+	{
+		// Ensure we are operating on the correct mode context
+		if (!mode.equals(currentGameMode)) return;
+		events.publish(DelveEventQueue.Type.DEATH, mode, 0, System.currentTimeMillis(), null);
 	}
 
 	public void syncOverallData(String mode, Map<Integer, Integer> levelKills, int wavesPast8)
 	{
-		DelveCalculatorData.DelveProfile profile = data.getProfiles().computeIfAbsent(mode, k -> new DelveCalculatorData.DelveProfile(mode, true));
-		profile.getLevelKills().putAll(levelKills);
-		profile.setWavesPast8(wavesPast8);
-		saveData();
-		SwingUtilities.invokeLater(this::updateAllUI);
+		events.publish(DelveEventQueue.Type.SCOREBOARD, mode, wavesPast8, System.currentTimeMillis(), levelKills);
 	}
 
 	public void syncCollectionLogData(String mode, Map<Integer, Integer> foundDrops)
 	{
-		DelveCalculatorData.DelveProfile profile = data.getProfiles().computeIfAbsent(mode, k -> new DelveCalculatorData.DelveProfile(mode, true));
-		profile.getObtainedUniques().putAll(foundDrops);
-		saveData();
-		SwingUtilities.invokeLater(this::updateAllUI);
+		events.publish(DelveEventQueue.Type.COLLECTION_LOG, mode, 0, System.currentTimeMillis(), foundDrops);
+	}
+
+	private class EventHandler implements DelveEventQueue.Handler
+	{
+		@Override
+		public void apply(DelveEventQueue.Event event)
+		{
+			switch (event.getType())
+			{
+				case LEVEL:
+					touchSession(event.getTime());
+					tracker.recordLevel(event.getMode(), event.getValue(), event.getTime());
+					break;
+				case DROP:
+					touchSession(event.getTime());
+					tracker.recordDrop(event.getMode(), event.getValue(), event.getTime());
+					break;
+				case DEATH:
+					tracker.recordDeath(event.getMode(), event.getTime());
+					break;
+				case SCOREBOARD:
+					tracker.syncScoreboard(event.getMode(), event.getCounts(), event.getValue());
+					break;
+				case COLLECTION_LOG:
+					tracker.syncCollectionLog(event.getMode(), event.getCounts());
+					break;
+			}
+		}
+
+		@Override
+		public void endBatch(int size)
+		{
+			flushCounters();
+			saveData();
+			if (sessionDirty)
+			{
+				session.save();
+				sessionDirty = false;
+			}
+			requestRefresh();
+		}
 	}
 
+	// Starts a new session first if the last activity was longer ago than the idle gap
+	private void touchSession(long now)
+	{
+		if (session == null) return;
+		if (config.sessionBoundary() == DelveCalculatorConfig.SessionBoundary.IDLE_GAP
+				&& session.isExpired(now, TimeUnit.MINUTES.toMillis(config.sessionIdleGap())))
+		{
+			session.reset(now);
+			clearSessionProfiles();
+		}
+		session.touch(now);
+		sessionDirty = true;
+	}
+
+	private boolean resumeSession(long now)
+	{
+		if (!session.exists()) return false;
+		switch (config.sessionBoundary())
+		{
+			case IDLE_GAP:
+				return !session.isExpired(now, TimeUnit.MINUTES.toMillis(config.sessionIdleGap()));
+			case MANUAL:
+				return true;
+			default:
+				// Switching back to an account within the same client run keeps its session
+				return session.getStart() >= CLIENT_START;
+		}
+	}
+
+	/**
+	 * Shows the last published view again, for changes that don't touch the profiles.
+	 */
 	public void updateAllUI()
 	{
-		if (totalKillsLabel == null) return;
+		View shown = view;
+		if (totalKillsLabel == null || shown == null) return;
+		long start = System.nanoTime();
+		metrics.increment(DelveMetrics.Counter.REFRESH_PERFORMED);
 
-		DelveCalculatorData.DelveProfile profile = getActiveProfile();
-		int totalKills = profile.getLevelKills().values().stream().mapToInt(Integer::intValue).sum() + profile.getWavesPast8();
+		DelveCalculatorData.DelveProfile profile = shown.profile;
+		int totalKills = DelveCalculator.getTotalKills(profile);
 		totalKillsLabel.setText(String.valueOf(totalKills));
 
 		for (int i = 1; i <= 8; i++)
@@ -460,23 +1021,53 @@ public class DelveCalculatorPanel extends PluginPanel
 		if (plusLabel != null) plusLabel.setText(String.valueOf(profile.getWavesPast8()));
 
 		updateProgressBars(profile);
+		updateRates(profile);
+		updateValues(profile);
+		shownRates = DelveRates.getTable(profile);
+		updateChart(shown);
+		plannerProfile = profile;
+		updatePlanner();
+		updateStrategy();
 
 		boolean hasData = totalKills > 0;
 		manualResetPanel.setVisible(currentView == ViewTab.MANUAL);
+		sessionResetPanel.setVisible(currentView == ViewTab.SESSION);
+		recentWindowPanel.setVisible(currentView == ViewTab.RECENT);
 		noDataSectionPanel.setVisible(!hasData && currentView == ViewTab.ALL);
+
+		metrics.record(DelveMetrics.Probe.UPDATE_ALL_UI, start);
+		metricsArea.setVisible(config.showMetrics());
+		if (config.showMetrics()) metricsArea.setText(metrics.summary());
 	}
 
-	private DelveCalculatorData.DelveProfile getActiveProfile()
+	// Runs on the executor, the tracker's profiles are never read from another thread
+	private DelveCalculatorData.DelveProfile copyActiveProfile(ViewTab shownView, String mode)
 	{
-		if (currentView == ViewTab.SESSION) return plugin.getSessionProfile(currentGameMode);
-		if (currentView == ViewTab.MANUAL) return data.getProfiles().computeIfAbsent(getManualProfileKey(), k -> new DelveCalculatorData.DelveProfile("Manual", true));
-		return data.getProfiles().computeIfAbsent(currentGameMode, k -> new DelveCalculatorData.DelveProfile(currentGameMode, true));
+		boolean shownAllModes = allModes;
+		if (shownView == ViewTab.RECENT)
+		{
+			DelveCalculatorData.DelveProfile recent = new DelveCalculatorData.DelveProfile("Recent", false);
+			if (shownAllModes) tracker.fillAllModesRecent(recentWindow, recent, System.currentTimeMillis());
+			else tracker.getRollingStats(mode).fill(recentWindow, recent, System.currentTimeMillis());
+			DelveLuckScore.prepare(recent);
+			return recent;
+		}
+		if (shownView == ViewTab.SESSION) return copyPrepared(shownAllModes ? tracker.getAllModesSessionProfile() : tracker.getSessionProfile(mode));
+		if (shownView == ViewTab.MANUAL) return copyPrepared(shownAllModes ? tracker.getAllModesManualProfile() : tracker.getManualProfile(mode));
+		return copyPrepared(shownAllModes ? tracker.getAllModesProfile() : tracker.getAllProfile(mode));
+	}
+
+	// Per-unique totals are built here, so the copy carries them and the EDT only reads them
+	private static DelveCalculatorData.DelveProfile copyPrepared(DelveCalculatorData.DelveProfile profile)
+	{
+		DelveLuckScore.prepare(profile);
+		return profile.copy();
 	}
 
 	private void updateProgressBars(DelveCalculatorData.DelveProfile profile)
 	{
 		Map<String, Double> itemProgress = calculateItemProgress(profile);
-		Map<String, DelveCalculatorConfig.RewardDisplayMode> displayModes = getDisplayModes();
+		updateJointLuck(profile, displayModes);
 
 		for (Map.Entry<String, ProgressRow> entry : progressRows.entrySet())
 		{
@@ -575,58 +1166,314 @@ public class DelveCalculatorPanel extends PluginPanel
 		}
 	}
 
-	private int getActualDrops(DelveCalculatorData.DelveProfile profile, String itemName)
+	// Residuals are kept up to date on the profile as events arrive, so this only combines them
+	private void updateJointLuck(DelveCalculatorData.DelveProfile profile, Map<String, DelveCalculatorConfig.RewardDisplayMode> displayModes)
 	{
-		if (itemName.equals("Any Item"))
+		int mask = 0;
+		for (Map.Entry<String, Integer> entry : DelveRates.getUniqueDropsMap().entrySet())
 		{
-			int sum = 0;
-			Map<String, DelveCalculatorConfig.RewardDisplayMode> displayModes = getDisplayModes();
-			for (Map.Entry<String, Integer> entry : DelveCalculatorPlugin.getUniqueDropsMap().entrySet())
+			if (displayModes.getOrDefault(entry.getKey(), DelveCalculatorConfig.RewardDisplayMode.SHOW) == DelveCalculatorConfig.RewardDisplayMode.SHOW)
 			{
-				if (displayModes.getOrDefault(entry.getKey(), DelveCalculatorConfig.RewardDisplayMode.SHOW) == DelveCalculatorConfig.RewardDisplayMode.SHOW)
-				{
-					sum += profile.getObtainedUniques().getOrDefault(entry.getValue(), 0);
-				}
+				mask |= 1 << RollingStats.itemIndex(entry.getValue());
 			}
-			return sum;
 		}
-		Integer itemId = DelveCalculatorPlugin.getUniqueDropsMap().get(itemName);
-		return (itemId != null) ? profile.getObtainedUniques().getOrDefault(itemId, 0) : 0;
+
+		jointLuckBar.setNormalMode();
+		jointLuckBar.setMaximum(100);
+		if (DelveCalculator.getTotalKills(profile) == 0)
+		{
+			jointLuckBar.setValue(0);
+			jointLuckBar.setString("-");
+			jointLuckLabel.setText("-");
+			return;
+		}
+		double score = DelveLuckScore.getScore(profile, mask);
+		double percentile = DelveLuckScore.toPercentile(score);
+		jointLuckBar.setValue((int) Math.round(percentile));
+		jointLuckBar.setString(String.format("%.0f%%", percentile));
+		jointLuckLabel.setText(String.format("%+.1f", score));
+		if (percentile >= 50)
+		{
+			jointLuckBar.setForeground(new Color(0, 100, 0));
+		}
+		else
+		{
+			// Yellow at the median to red at the 2nd percentile, like the luck bars
+			float ratio = (float) Math.min((50 - percentile) / 48, 1.0);
+			jointLuckBar.setForeground(new Color(150, (int) (150 * (1.0 - ratio)), 0));
+		}
 	}
 
-	private Map<String, Double> calculateItemProgress(DelveCalculatorData.DelveProfile profile)
+	// Posteriors are rebuilt from the profile's counts and their interval ends come from a cache
+	private void updateRates(DelveCalculatorData.DelveProfile profile)
 	{
-		Map<String, Double> progress = new HashMap<>();
-		double mokhaiotl = 0, eye = 0, avernic = 0, dom = 0;
+		int totalKills = DelveCalculator.getTotalKills(profile);
+		for (Map.Entry<String, JLabel[]> entry : rateLabels.entrySet())
+		{
+			JLabel[] labels = entry.getValue();
+			boolean visible = displayModes.getOrDefault(entry.getKey(), DelveCalculatorConfig.RewardDisplayMode.SHOW) != DelveCalculatorConfig.RewardDisplayMode.HIDE;
+			for (JLabel label : labels)
+			{
+				label.setVisible(visible);
+			}
+			if (!visible) continue;
 
-		for (Map.Entry<Integer, DelveCalculatorPlugin.DropRates> entry : DelveCalculatorPlugin.getDropRates().entrySet())
+			int[] itemIds = getItemIds(entry.getKey());
+			double wikiChance = totalKills > 0 ? DelveCalculator.getExpected(profile, itemIds) / totalKills : 0;
+			if (wikiChance <= 0)
+			{
+				labels[1].setText("-");
+				labels[2].setText("-");
+				labels[1].setToolTipText(null);
+				continue;
+			}
+
+			DelveRateEstimator.Posterior posterior = DelveRateEstimator.of(profile, itemIds);
+			labels[1].setText(formatRate(wikiChance * posterior.getMean()) + " (" + formatRate(wikiChance * posterior.getLower()) + "-" + formatRate(wikiChance * posterior.getUpper()) + ")");
+			labels[2].setText(formatRate(wikiChance));
+
+			StringBuilder tooltip = new StringBuilder("<html>");
+			double[] levelRates = DelveCalculator.getLevelRates(profile, itemIds);
+			for (int level = 2; level <= 9; level++)
+			{
+				if (levelRates[level] <= 0) continue;
+				tooltip.append(level == 9 ? "Level 8+" : "Level " + level).append(": ")
+						.append(formatRate(levelRates[level] * posterior.getMean()))
+						.append(" (").append(formatRate(levelRates[level] * posterior.getLower()))
+						.append("-").append(formatRate(levelRates[level] * posterior.getUpper()))
+						.append("), wiki ").append(formatRate(levelRates[level])).append("<br>");
+			}
+			labels[1].setToolTipText(tooltip.append("</html>").toString());
+		}
+	}
+
+	// Prices are read from the cache, which is refreshed in the background, and totals from the
+	// arrays the profile keeps up to date as events arrive. Rows only reformat the amounts that
+	// changed since the last refresh.
+	private void updateValues(DelveCalculatorData.DelveProfile profile)
+	{
+		Map<String, DelveCalculatorConfig.RewardDisplayMode> modes = displayModes;
+		DelveLuckScore.getTotals(profile, shownExpected, shownReceived);
+		boolean priced = prices.getFetchedAt() >= 0;
+		long totalExpected = 0;
+		long totalReceived = 0;
+		for (ValueRow row : valueRows)
+		{
+			DelveCalculatorConfig.RewardDisplayMode displayMode = modes.getOrDefault(row.itemName, DelveCalculatorConfig.RewardDisplayMode.SHOW);
+			row.setVisible(displayMode != DelveCalculatorConfig.RewardDisplayMode.HIDE);
+
+			long price = prices.getPrice(row.itemId);
+			long expected = Math.round(shownExpected[row.item] * price);
+			long received = (long) shownReceived[row.item] * price;
+			row.setPrice(priced ? price : ValueRow.NO_VALUE);
+			row.setAmounts(priced ? expected : ValueRow.NO_VALUE, priced ? received : ValueRow.NO_VALUE);
+			if (displayMode == DelveCalculatorConfig.RewardDisplayMode.SHOW)
+			{
+				totalExpected += expected;
+				totalReceived += received;
+			}
+		}
+		valueTotalRow.setAmounts(priced ? totalExpected : ValueRow.NO_VALUE, priced ? totalReceived : ValueRow.NO_VALUE);
+
+		double hours = 0;
+		if (levelMillis != null)
+		{
+			for (int level = 1; level <= 9; level++)
+			{
+				hours += DelveCalculator.getKills(profile, level) * levelMillis[level] / 3_600_000;
+			}
+		}
+		boolean timed = priced && hours > 0;
+		gpPerHourRow.setAmounts(timed ? Math.round(totalExpected / hours) : ValueRow.NO_VALUE,
+				timed ? Math.round(totalReceived / hours) : ValueRow.NO_VALUE);
+	}
+
+	private static String formatRate(double chance)
+	{
+		return chance > 0 ? String.format("1/%,.0f", 1 / chance) : "-";
+	}
+
+	private void updateChart(View shown)
+	{
+		if (shown == null) return;
+		int[] itemIds = getItemIds((String) chartItemBox.getSelectedItem());
+		int mask = 0;
+		for (int itemId : itemIds)
+		{
+			mask |= 1 << RollingStats.itemIndex(itemId);
+		}
+
+		luckChart.setHistory(shown.history);
+		luckChart.setAxis((LuckChart.Axis) chartAxisBox.getSelectedItem());
+		luckChart.setSeries(DelveCalculator.getLevelRates(shownRates, itemIds), mask);
+		luckChart.refresh();
+	}
+
+	// Only a table lookup, so it runs on every slider change
+	private void updatePlanner()
+	{
+		int confidence = plannerSlider.getValue();
+		plannerConfidenceLabel.setText(confidence + "% chance");
+		if (plannerProfile == null) return;
+
+		int[] itemIds = getItemIds((String) plannerItemBox.getSelectedItem());
+		int needed = planner.getCompletionsNeeded(plannerProfile, itemIds, confidence / 100.0);
+		if (needed < 0)
 		{
-			int level = entry.getKey();
-			DelveCalculatorPlugin.DropRates rates = entry.getValue();
-			int kills = (level == 9) ? profile.getWavesPast8() : profile.getLevelKills().getOrDefault(level, 0);
+			plannerResultLabel.setText("Can't drop at this level mix");
+			plannerResultLabel.setToolTipText(null);
+			return;
+		}
+		double chance = DelvePlanner.getCompletionChance(plannerProfile, itemIds);
+		plannerResultLabel.setText(String.format("%,d more levels", needed));
+		plannerResultLabel.setToolTipText(String.format("1/%.0f per level at this tab's level mix", 1 / chance));
+	}
 
-			mokhaiotl += kills * rates.mokhaiotlCloth;
-			eye += kills * rates.eyeOfAyak;
-			avernic += kills * rates.avernicTreads;
-			dom += kills * rates.dom;
+	// Solved off the EDT since reading the history and evaluating every policy can take a while
+	private void updateStrategy()
+	{
+		if (strategyRunning)
+		{
+			strategyPending = true;
+			return;
 		}
+		View shown = view;
+		// Solved once the history has loaded, which publishes the view again
+		if (shown == null || shown.history == null) return;
+		strategyRunning = true;
+		strategyPending = false;
+
+		String mode = shown.mode;
+		DelveHistory history = shown.history;
+		DelveRates.Table rates = shownRates;
+		int[] itemIds = getItemIds((String) plannerItemBox.getSelectedItem());
+		double[] weights = new double[itemIds.length];
+		Arrays.fill(weights, 1);
+		ForkJoinPool.commonPool().execute(() -> {
+			DelveDepthStrategy.Result result = null;
+			try
+			{
+				result = depthStrategy.solve(mode, history, rates, itemIds, weights);
+			}
+			catch (RuntimeException e)
+			{
+				log.debug("Error solving depth strategy", e);
+			}
+			DelveDepthStrategy.Result solved = result;
+			SwingUtilities.invokeLater(() -> {
+				strategyRunning = false;
+				if (solved != null) showStrategy(solved);
+				if (strategyPending) updateStrategy();
+			});
+		});
+	}
 
-		progress.put("Mokhaiotl cloth", mokhaiotl);
-		progress.put("Eye of ayak (uncharged)", eye);
-		progress.put("Avernic treads", avernic);
-		progress.put("Dom", dom);
+	private void showStrategy(DelveDepthStrategy.Result result)
+	{
+		boolean firstTimes = levelMillis == null;
+		levelMillis = result.levelMillis;
+		if (firstTimes && plannerProfile != null) updateValues(plannerProfile);
 
-		double any = 0;
-		if (config.mokhaiotlClothDisplay() == DelveCalculatorConfig.RewardDisplayMode.SHOW) any += mokhaiotl;
-		if (config.eyeOfAyakDisplay() == DelveCalculatorConfig.RewardDisplayMode.SHOW) any += eye;
-		if (config.avernicTreadsDisplay() == DelveCalculatorConfig.RewardDisplayMode.SHOW) any += avernic;
-		if (config.domDisplay() == DelveCalculatorConfig.RewardDisplayMode.SHOW) any += dom;
-		progress.put("Any Item", any);
+		DelveDepthStrategy.Policy best = result.best;
+		if (best.valuePerHour <= 0)
+		{
+			strategyLabel.setText("No drops to plan a depth for");
+			strategyRateLabel.setText(" ");
+			return;
+		}
+		String depth = best.keepsPushing() ? "Best: keep pushing 8+" : "Best: bank after " + DelveDepthStrategy.describeDepth(best.bankAfter);
+		strategyLabel.setText(depth + (best.banksOnUnique() ? ", bank on a unique from " + DelveDepthStrategy.describeDepth(best.bankOnUniqueFrom) : ""));
+		strategyRateLabel.setText(String.format("%.2f drops/hr (bank at 6: %.2f, at 8: %.2f)",
+				best.valuePerHour, result.bankAfterRates[6], result.bankAfterRates[8]));
+		String tooltip = "Assumes unclaimed rewards are lost on death. Measured from " + result.levels + " levels and " + result.deaths + " deaths in this mode's history.";
+		strategyLabel.setToolTipText(tooltip);
+		strategyRateLabel.setToolTipText(tooltip);
+	}
 
+	private int getActualDrops(DelveCalculatorData.DelveProfile profile, String itemName)
+	{
+		return DelveCalculator.getActual(profile, getItemIds(itemName));
+	}
+
+	private Map<String, Double> calculateItemProgress(DelveCalculatorData.DelveProfile profile)
+	{
+		Map<String, Double> progress = new HashMap<>();
+		for (String itemName : progressRows.keySet())
+		{
+			progress.put(itemName, DelveCalculator.getExpected(profile, getItemIds(itemName)));
+		}
 		return progress;
 	}
 
-	private Map<String, DelveCalculatorConfig.RewardDisplayMode> getDisplayModes()
+	/**
+	 * Publishes the drop rate corrections from the config, moving every loaded profile onto them in
+	 * the background while the panel keeps showing each one with its old rates until it is done.
+	 */
+	public void applyDropRates()
+	{
+		Map<Integer, DelveRates.DropRates> rates;
+		try
+		{
+			rates = DelveRates.parseCorrections(config.dropRateCorrections());
+		}
+		catch (IllegalArgumentException e)
+		{
+			log.warn("Ignoring invalid drop rate corrections: {}", e.getMessage());
+			rates = DelveRates.getDefaultDropRates();
+		}
+		Map<Integer, DelveRates.DropRates> corrected = rates;
+		plugin.getExecutor().execute(() -> {
+			if (DelveRateRecompute.start(tracker.getTrackedProfiles(), corrected, alerts, plugin.getExecutor(), this::requestRefresh))
+			{
+				requestRefresh();
+			}
+		});
+	}
+
+	/**
+	 * Builds the alert rules from the config, called again on every config change.
+	 */
+	public void configureAlerts()
+	{
+		List<DelveAlerts.Rule> rules = new ArrayList<>();
+		DelveCalculatorConfig.AlertItem luckItem = config.luckAlertItem();
+		if (luckItem != DelveCalculatorConfig.AlertItem.OFF)
+		{
+			String name = ALERT_ITEM_NAMES[luckItem.ordinal()];
+			rules.add(DelveAlerts.luckBelow(name, getItemIds(name), config.luckAlertThreshold()));
+		}
+		DelveCalculatorConfig.AlertItem expectedItem = config.expectedAlertItem();
+		if (expectedItem != DelveCalculatorConfig.AlertItem.OFF)
+		{
+			String name = ALERT_ITEM_NAMES[expectedItem.ordinal()];
+			rules.add(DelveAlerts.expectedMultiple(name, getItemIds(name)));
+		}
+		if (config.sessionLevelAlert() > 0)
+		{
+			rules.add(DelveAlerts.sessionLevels(config.sessionLevelAlert()));
+		}
+		alerts.setRules(rules.toArray(new DelveAlerts.Rule[0]));
+	}
+
+	// "Any Item" stands for every unique whose display mode is SHOW
+	private int[] getItemIds(String itemName)
+	{
+		if (!"Any Item".equals(itemName))
+		{
+			Integer itemId = DelveRates.getUniqueDropsMap().get(itemName);
+			return itemId != null ? new int[]{itemId} : new int[0];
+		}
+
+		return DelveRates.getUniqueDropsMap().entrySet().stream()
+				.filter(e -> displayModes.getOrDefault(e.getKey(), DelveCalculatorConfig.RewardDisplayMode.SHOW) == DelveCalculatorConfig.RewardDisplayMode.SHOW)
+				.mapToInt(Map.Entry::getValue)
+				.toArray();
+	}
+
+	/**
+	 * Reads the display mode of each reward from the config, called again on every config change.
+	 */
+	public void refreshDisplayModes()
 	{
 		Map<String, DelveCalculatorConfig.RewardDisplayMode> modes = new HashMap<>();
 		modes.put("Any Item", DelveCalculatorConfig.RewardDisplayMode.SHOW);
@@ -634,7 +1481,7 @@ public class DelveCalculatorPanel extends PluginPanel
 		modes.put("Eye of ayak (uncharged)", config.eyeOfAyakDisplay());
 		modes.put("Avernic treads", config.avernicTreadsDisplay());
 		modes.put("Dom", config.domDisplay());
-		return modes;
+		displayModes = modes;
 	}
 
 	private Color calculateProgressColor(int barValue)
@@ -653,14 +1500,289 @@ public class DelveCalculatorPanel extends PluginPanel
 
 		int row = 0;
 		addAnyItemProgressBar(panel, row++);
-		addProgressBar(panel, "Mokhaiotl cloth", ItemID.MOKHAIOTL_CLOTH, row++);
-		addProgressBar(panel, "Eye of ayak (uncharged)", ItemID.EYE_OF_AYAK_UNCHARGED, row++);
-		addProgressBar(panel, "Avernic treads", ItemID.AVERNIC_TREADS, row++);
-		addProgressBar(panel, "Dom", ItemID.DOM, row++);
+		for (Map.Entry<String, Integer> entry : DelveRates.getUniqueDropsMap().entrySet())
+		{
+			addProgressBar(panel, entry.getKey(), entry.getValue(), row++);
+		}
+		addJointLuckBar(panel, row);
+
+		return panel;
+	}
+
+	private JPanel createRatePanel()
+	{
+		JPanel panel = new JPanel(new GridBagLayout());
+		panel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		panel.setBorder(new EmptyBorder(0, 5, 5, 5));
+		panel.setToolTipText("Drop rates you are seeing at this tab's level mix, with a 90% credible interval, next to the wiki rates. Hover a rate for each level.");
+
+		GridBagConstraints c = new GridBagConstraints();
+		c.fill = GridBagConstraints.HORIZONTAL;
+		c.insets = new Insets(1, 0, 1, 5);
+		String[] names = {"Any Item", "Mokhaiotl cloth", "Eye of ayak (uncharged)", "Avernic treads", "Dom"};
+		String[] shortNames = {"Any", "Cloth", "Eye", "Treads", "Dom"};
+
+		c.gridy = 0;
+		JLabel title = new JLabel("Seen rate (90%)");
+		title.setForeground(Color.YELLOW);
+		title.setFont(FontManager.getRunescapeSmallFont());
+		c.gridx = 1;
+		panel.add(title, c);
+		JLabel wikiTitle = new JLabel("Wiki");
+		wikiTitle.setForeground(Color.YELLOW);
+		wikiTitle.setFont(FontManager.getRunescapeSmallFont());
+		c.gridx = 2;
+		panel.add(wikiTitle, c);
+
+		for (int i = 0; i < names.length; i++)
+		{
+			JLabel[] labels = {new JLabel(shortNames[i]), new JLabel("-"), new JLabel("-")};
+			c.gridy = i + 1;
+			for (int column = 0; column < labels.length; column++)
+			{
+				labels[column].setForeground(column == 0 ? ColorScheme.LIGHT_GRAY_COLOR : Color.WHITE);
+				labels[column].setFont(FontManager.getRunescapeSmallFont());
+				c.gridx = column;
+				c.weightx = column == 1 ? 1 : 0;
+				panel.add(labels[column], c);
+			}
+			rateLabels.put(names[i], labels);
+		}
+		return panel;
+	}
+
+	private JPanel createValuePanel()
+	{
+		JPanel panel = new JPanel(new GridBagLayout());
+		panel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		panel.setBorder(new EmptyBorder(0, 5, 5, 5));
+		panel.setToolTipText("GE value of the uniques shown. GP/hr uses your measured time per level in this mode.");
 
+		GridBagConstraints c = new GridBagConstraints();
+		c.fill = GridBagConstraints.HORIZONTAL;
+		c.insets = new Insets(1, 0, 1, 5);
+		c.gridy = 0;
+		String[] header = {"Value", "Expected", "Received"};
+		for (int column = 0; column < header.length; column++)
+		{
+			JLabel label = new JLabel(header[column]);
+			label.setForeground(Color.YELLOW);
+			label.setFont(FontManager.getRunescapeSmallFont());
+			c.gridx = column;
+			c.weightx = column == 0 ? 0 : 1;
+			panel.add(label, c);
+		}
+
+		String[] shortNames = {"Cloth", "Eye", "Treads", "Dom"};
+		int row = 0;
+		for (Map.Entry<String, Integer> entry : DelveRates.getUniqueDropsMap().entrySet())
+		{
+			valueRows[row] = new ValueRow(shortNames[row], entry.getKey(), entry.getValue());
+			addValueRow(panel, c, row + 1, valueRows[row].labels);
+			row++;
+		}
+		addValueRow(panel, c, ++row, valueTotalRow.labels);
+		addValueRow(panel, c, ++row, gpPerHourRow.labels);
 		return panel;
 	}
 
+	private static void addValueRow(JPanel panel, GridBagConstraints c, int row, JLabel[] labels)
+	{
+		c.gridy = row;
+		for (int column = 0; column < labels.length; column++)
+		{
+			labels[column].setForeground(column == 0 ? ColorScheme.LIGHT_GRAY_COLOR : Color.WHITE);
+			labels[column].setFont(FontManager.getRunescapeSmallFont());
+			c.gridx = column;
+			c.weightx = column == 0 ? 0 : 1;
+			panel.add(labels[column], c);
+		}
+	}
+
+	private JPanel createChartSection()
+	{
+		JPanel section = new JPanel();
+		section.setLayout(new BoxLayout(section, BoxLayout.Y_AXIS));
+		section.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		section.setBorder(new EmptyBorder(5, 5, 5, 5));
+
+		JLabel chartTitle = new JLabel("Luck Over Time");
+		chartTitle.setForeground(Color.YELLOW);
+		chartTitle.setFont(FontManager.getRunescapeBoldFont());
+		chartTitle.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+		JPanel chartControls = new JPanel(new GridLayout(1, 2, 5, 0));
+		chartControls.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		chartItemBox.setFont(FontManager.getRunescapeSmallFont());
+		chartAxisBox.setFont(FontManager.getRunescapeSmallFont());
+		chartItemBox.addActionListener(e -> updateChart(view));
+		chartAxisBox.addActionListener(e -> updateChart(view));
+		chartControls.add(chartItemBox);
+		chartControls.add(chartAxisBox);
+
+		section.add(chartTitle);
+		section.add(Box.createVerticalStrut(5));
+		section.add(chartControls);
+		section.add(Box.createVerticalStrut(5));
+		section.add(luckChart);
+		return section;
+	}
+
+	private JPanel createPlannerSection()
+	{
+		JPanel section = new JPanel();
+		section.setLayout(new BoxLayout(section, BoxLayout.Y_AXIS));
+		section.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		section.setBorder(new EmptyBorder(5, 5, 5, 5));
+
+		JLabel plannerTitle = new JLabel("Planner");
+		plannerTitle.setForeground(Color.YELLOW);
+		plannerTitle.setFont(FontManager.getRunescapeBoldFont());
+		plannerTitle.setAlignmentX(Component.CENTER_ALIGNMENT);
+		plannerTitle.setToolTipText("Levels needed for a drop with the chosen chance, assuming you keep the level mix of the selected tab.");
+
+		plannerItemBox.setFont(FontManager.getRunescapeSmallFont());
+		plannerItemBox.addActionListener(e -> {
+			updatePlanner();
+			updateStrategy();
+		});
+
+		JPanel sliderRow = new JPanel(new BorderLayout(5, 0));
+		sliderRow.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		plannerSlider.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		plannerSlider.addChangeListener(e -> {
+			updatePlanner();
+			if (!plannerSlider.getValueIsAdjusting()) config.plannerConfidence(plannerSlider.getValue());
+		});
+		plannerConfidenceLabel.setForeground(Color.WHITE);
+		plannerConfidenceLabel.setFont(FontManager.getRunescapeSmallFont());
+		sliderRow.add(plannerSlider, BorderLayout.CENTER);
+		sliderRow.add(plannerConfidenceLabel, BorderLayout.EAST);
+
+		plannerResultLabel.setForeground(Color.WHITE);
+		plannerResultLabel.setFont(FontManager.getRunescapeFont());
+		plannerResultLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+		section.add(plannerTitle);
+		section.add(Box.createVerticalStrut(5));
+		section.add(plannerItemBox);
+		section.add(Box.createVerticalStrut(5));
+		section.add(sliderRow);
+		section.add(Box.createVerticalStrut(5));
+		section.add(plannerResultLabel);
+
+		for (JLabel label : new JLabel[]{strategyLabel, strategyRateLabel})
+		{
+			label.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+			label.setFont(FontManager.getRunescapeSmallFont());
+			label.setAlignmentX(Component.CENTER_ALIGNMENT);
+		}
+		section.add(Box.createVerticalStrut(5));
+		section.add(strategyLabel);
+		section.add(strategyRateLabel);
+		return section;
+	}
+
+	private JPanel createDataSection()
+	{
+		JPanel section = new JPanel();
+		section.setLayout(new BoxLayout(section, BoxLayout.Y_AXIS));
+		section.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		section.setBorder(new EmptyBorder(5, 5, 5, 5));
+
+		JPanel buttons = new JPanel(new GridLayout(2, 2, 5, 5));
+		buttons.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		buttons.add(createDataButton("Export CSV", () -> exportData(DelveDataExporter.Format.CSV)));
+		buttons.add(createDataButton("Export JSON", () -> exportData(DelveDataExporter.Format.NDJSON)));
+		buttons.add(createDataButton("Import", this::importData));
+
+		dataStatusLabel.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		dataStatusLabel.setFont(FontManager.getRunescapeSmallFont());
+		dataStatusLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+		buttons.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+		section.add(buttons);
+		section.add(Box.createVerticalStrut(5));
+		section.add(dataStatusLabel);
+		return section;
+	}
+
+	private JButton createDataButton(String text, Runnable action)
+	{
+		JButton button = new JButton(text);
+		button.setFont(FontManager.getRunescapeSmallFont());
+		button.setFocusPainted(false);
+		button.addActionListener(e -> action.run());
+		return button;
+	}
+
+	private void setDataStatus(String text)
+	{
+		SwingUtilities.invokeLater(() -> dataStatusLabel.setText(text));
+	}
+
+	private void exportData(DelveDataExporter.Format format)
+	{
+		JFileChooser chooser = new JFileChooser();
+		chooser.setSelectedFile(new File("delve-calculator." + format.getExtension()));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+		File target = chooser.getSelectedFile();
+
+		dataStatusLabel.setText("Exporting...");
+		plugin.getExecutor().execute(() -> {
+			// Profiles are small, so a copy keeps the export consistent while new kills arrive
+			Map<String, DelveCalculatorData.DelveProfile> snapshot = new HashMap<>();
+			for (Map.Entry<String, DelveCalculatorData.DelveProfile> entry : getData().getProfiles().entrySet())
+			{
+				snapshot.put(entry.getKey(), entry.getValue().copy());
+			}
+			try
+			{
+				new DelveDataExporter(format, (done, total) -> setDataStatus("Exporting... " + (total > 0 ? done * 100 / total : 100) + "%"))
+						.export(snapshot, historyDir, target);
+				setDataStatus("Exported to " + target.getName());
+			}
+			catch (IOException e)
+			{
+				log.warn("Error exporting delve data", e);
+				setDataStatus("Export failed: " + e.getMessage());
+			}
+		});
+	}
+
+	private void importData()
+	{
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+		File source = chooser.getSelectedFile();
+
+		dataStatusLabel.setText("Importing...");
+		plugin.getExecutor().execute(() -> {
+			Map<String, DelveDataImporter.Totals> totals;
+			try (Reader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8))
+			{
+				totals = new DelveDataImporter((done, total) -> setDataStatus("Importing... " + done + " rows")).read(reader);
+			}
+			catch (IOException e)
+			{
+				log.debug("Error importing delve data", e);
+				setDataStatus("Import failed: " + e.getMessage());
+				return;
+			}
+			mergeImport(totals);
+			setDataStatus("Imported " + source.getName());
+		});
+	}
+
+	// Applies a whole import to the All and Manual profiles with a single save, on the executor like queued events
+	private void mergeImport(Map<String, DelveDataImporter.Totals> totals)
+	{
+		tracker.mergeImport(totals, currentGameMode);
+		flushCounters();
+		saveData();
+		requestRefresh();
+	}
+
 	private JPanel createLevelPanel(String labelText)
 	{
 		JPanel levelPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
@@ -713,6 +1835,40 @@ public class DelveCalculatorPanel extends PluginPanel
 		progressRows.put(itemName, progressRow);
 	}
 
+	private void addJointLuckBar(JPanel parent, int row)
+	{
+		GridBagConstraints c = new GridBagConstraints();
+		c.insets = new Insets(2, 0, 2, 0);
+
+		JPanel iconPanel = new JPanel(new GridBagLayout());
+		iconPanel.setPreferredSize(new Dimension(32, 32));
+		iconPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		JLabel iconLabelText = new JLabel("Luck");
+		iconLabelText.setForeground(Color.YELLOW);
+		iconLabelText.setFont(FontManager.getRunescapeFont());
+		iconPanel.add(iconLabelText);
+		c.gridx = 0;
+		c.gridy = row;
+		c.anchor = GridBagConstraints.WEST;
+		parent.add(iconPanel, c);
+
+		jointLuckBar.setToolTipText("<html>Joint luck over the uniques shown, with rare drops counting for more.<br>" +
+				"About the share of players with the same completions expected to have been less lucky,<br>" +
+				"counting half of those with exactly your drops.</html>");
+		c.gridx = 1;
+		c.fill = GridBagConstraints.HORIZONTAL;
+		c.weightx = 1.0;
+		c.insets = new Insets(2, 5, 2, 5);
+		parent.add(jointLuckBar, c);
+
+		c.gridx = 2;
+		c.fill = GridBagConstraints.NONE;
+		c.weightx = 0;
+		c.anchor = GridBagConstraints.WEST;
+		c.insets = new Insets(2, 0, 2, 0);
+		parent.add(jointLuckLabel, c);
+	}
+
 	private void addAnyItemProgressBar(JPanel parent, int row)
 	{
 		GridBagConstraints c = new GridBagConstraints();
@@ -802,6 +1958,31 @@ public class DelveCalculatorPanel extends PluginPanel
 		return panel;
 	}
 
+	private void confirmResetSession()
+	{
+		int option = JOptionPane.showOptionDialog(
+				this,
+				"This will start the Session tab over from zero. Proceed?",
+				"Start New Session",
+				JOptionPane.YES_NO_OPTION,
+				JOptionPane.WARNING_MESSAGE,
+				null,
+				new Object[]{"Reset", "Cancel"},
+				"Cancel"
+		);
+
+		if (option == JOptionPane.YES_OPTION)
+		{
+			plugin.getExecutor().execute(() -> {
+				if (session == null) return;
+				session.reset(System.currentTimeMillis());
+				session.save();
+				clearSessionProfiles();
+				requestRefresh();
+			});
+		}
+	}
+
 	private void confirmResetManualData()
 	{
 		int option = JOptionPane.showOptionDialog(
@@ -817,15 +1998,15 @@ public class DelveCalculatorPanel extends PluginPanel
 
 		if (option == JOptionPane.YES_OPTION)
 		{
-			DelveCalculatorData.DelveProfile manualProfile = data.getProfiles().get(getManualProfileKey());
-			if (manualProfile != null)
-			{
-				manualProfile.getLevelKills().clear();
-				manualProfile.setWavesPast8(0);
-				manualProfile.getObtainedUniques().clear();
-				saveData();
-				updateAllUI();
-			}
+			String mode = currentGameMode;
+			plugin.getExecutor().execute(() -> {
+				if (tracker.resetManual(mode))
+				{
+					flushCounters();
+					saveData();
+					requestRefresh();
+				}
+			});
 		}
 	}
 }
\ No newline at end of file
@@ -1,6 +1,5 @@
 package com.speaax;
 
-import com.google.gson.Gson;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.ChatMessageType;
@@ -9,30 +8,35 @@ import net.runelite.api.GameState;
 import net.runelite.api.ScriptID;
 import net.runelite.api.WorldType;
 import net.runelite.api.events.*;
-import net.runelite.api.ItemID;
 import net.runelite.api.widgets.Widget;
 import net.runelite.api.Player;
 import net.runelite.api.coords.WorldPoint;
+import net.runelite.client.Notifier;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.game.ItemManager;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
+import net.runelite.client.RuneLite;
 import net.runelite.client.ui.ClientToolbar;
 import net.runelite.client.ui.NavigationButton;
+import net.runelite.client.ui.overlay.OverlayManager;
 import net.runelite.client.util.ImageUtil;
 import net.runelite.client.config.ConfigManager;
-import net.runelite.client.util.Text;
 import com.google.inject.Provides;
 
 import javax.inject.Inject;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
-import java.util.Arrays;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -47,23 +51,40 @@ public class DelveCalculatorPlugin extends Plugin
 	@Inject private Client client;
 	@Inject @Getter private ClientThread clientThread;
 	@Inject private DelveCalculatorConfig config;
-	@Inject private Gson gson;
 	@Inject private ClientToolbar clientToolbar;
+	@Inject private OverlayManager overlayManager;
+	@Getter @Inject private Notifier notifier;
 	@Getter @Inject private ItemManager itemManager;
+	@Getter @Inject private ScheduledExecutorService executor;
+	@Getter @Inject private ConfigManager configManager;
+	@Getter private final DelveMetrics metrics = new DelveMetrics();
+	@Getter private final DelvePriceCache prices = new DelvePriceCache();
 
 	private DelveCalculatorPanel panel;
+	@Getter private DelveOverlay overlay;
 	private NavigationButton navButton;
 	private Timer sessionTimeoutTimer;
 	private boolean panelVisible = false;
 	private boolean inDelveRegion = false;
+	private DelveEventParser parser;
+	private DelveTrace.Recorder traceRecorder;
+	private ScheduledFuture<?> traceFlush;
+	private ScheduledFuture<?> priceCheck;
 
-	private final Map<String, DelveCalculatorData.DelveProfile> sessionProfiles = new HashMap<>();
+	// Written by the panel's executor and read on the EDT
+	private final Map<String, DelveCalculatorData.DelveProfile> sessionProfiles = new ConcurrentHashMap<>();
 
 	public DelveCalculatorData.DelveProfile getSessionProfile(String mode)
 	{
 		return sessionProfiles.computeIfAbsent(mode, k -> new DelveCalculatorData.DelveProfile("Session", false));
 	}
 
+	// Session totals belong to the account that earned them
+	public void clearSessionProfiles()
+	{
+		sessionProfiles.clear();
+	}
+
 	private static final int WIDGET_GROUP_SCOREBOARD = 920;
 	private static final int WIDGET_GROUP_COLLECTION_LOG = 621;
 	private static final int WIDGET_COLLECTION_LOG_ITEMS = 37;
@@ -73,25 +94,11 @@ public class DelveCalculatorPlugin extends Plugin
 	private static final int WIDGET_LOOT_CLAIM_HEADER = 8;
 	private static final int WIDGET_LOOT_CONTENTS = 19;
 
+	private static final File TRACE_DIR = new File(new File(RuneLite.RUNELITE_DIR, "delve-calculator"), "traces");
+	// A trace cut short by a crash loses at most this much
+	private static final int TRACE_FLUSH_SECONDS = 5;
+
 	private static final int[] DELVE_REGION_IDS = {5269, 13668, 14180};
-	private static final Map<Integer, DropRates> DROP_RATES_BY_LEVEL = new HashMap<>();
-	private static final Map<String, Integer> UNIQUE_DROPS = new HashMap<>();
-
-	static {
-		DROP_RATES_BY_LEVEL.put(2, new DropRates(1.0/2500, 1.0/2500, 0, 0, 0));
-		DROP_RATES_BY_LEVEL.put(3, new DropRates(1.0/1000, 1.0/2000, 1.0/2000, 0, 0));
-		DROP_RATES_BY_LEVEL.put(4, new DropRates(1.0/450, 1.0/1350, 1.0/1350, 1.0/1350, 0));
-		DROP_RATES_BY_LEVEL.put(5, new DropRates(1.0/270, 1.0/810, 1.0/810, 1.0/810, 0));
-		DROP_RATES_BY_LEVEL.put(6, new DropRates(1.0/255, 1.0/765, 1.0/765, 1.0/765, 1.0/1000));
-		DROP_RATES_BY_LEVEL.put(7, new DropRates(1.0/240, 1.0/720, 1.0/720, 1.0/720, 1.0/750));
-		DROP_RATES_BY_LEVEL.put(8, new DropRates(1.0/210, 1.0/630, 1.0/630, 1.0/630, 1.0/500));
-		DROP_RATES_BY_LEVEL.put(9, new DropRates(1.0/180, 1.0/540, 1.0/540, 1.0/540, 1.0/250));
-
-		UNIQUE_DROPS.put("Mokhaiotl cloth", ItemID.MOKHAIOTL_CLOTH);
-		UNIQUE_DROPS.put("Eye of ayak (uncharged)", ItemID.EYE_OF_AYAK_UNCHARGED);
-		UNIQUE_DROPS.put("Avernic treads", ItemID.AVERNIC_TREADS);
-		UNIQUE_DROPS.put("Dom", ItemID.DOM);
-	}
 
 	@Provides
 	DelveCalculatorConfig provideConfig(ConfigManager configManager)
@@ -102,7 +109,16 @@ public class DelveCalculatorPlugin extends Plugin
 	@Override
 	protected void startUp() throws Exception
 	{
-		panel = new DelveCalculatorPanel(this, config, gson);
+		overlay = new DelveOverlay(this);
+		panel = new DelveCalculatorPanel(this, config);
+		if (config.showOverlay()) overlayManager.add(overlay);
+		parser = new DelveEventParser(new PanelListener(), this::getItemName, this::getCurrentGameMode, metrics);
+		clientThread.invokeLater(this::updateTraceRecorder);
+		priceCheck = executor.scheduleWithFixedDelay(this::checkPrices, 0, 1, TimeUnit.MINUTES);
+		clientThread.invokeLater(() -> {
+			// No login event follows when the plugin is enabled while logged in
+			if (panel != null && client.getGameState() == GameState.LOGGED_IN) panel.switchAccount(client.getAccountHash());
+		});
 		BufferedImage icon = ImageUtil.loadImageResource(getClass(), "/icon.png");
 
 		navButton = NavigationButton.builder()
@@ -133,8 +149,80 @@ public class DelveCalculatorPlugin extends Plugin
 		}
 
 		if (panel != null) {
+			panel.close();
 			panel = null;
 		}
+
+		if (overlay != null) {
+			overlayManager.remove(overlay);
+			overlay = null;
+		}
+
+		clientThread.invokeLater(this::closeTraceRecorder);
+
+		if (priceCheck != null) {
+			priceCheck.cancel(false);
+			priceCheck = null;
+		}
+
+		if (config.showMetrics())
+		{
+			log.info("Delve Calculator metrics:\n{}", metrics.summary());
+		}
+	}
+
+	private String getItemName(int itemId)
+	{
+		return itemManager.getItemComposition(itemId).getName();
+	}
+
+	private void updateTraceRecorder()
+	{
+		if (!config.recordTrace())
+		{
+			closeTraceRecorder();
+			return;
+		}
+		if (traceRecorder != null) return;
+
+		File file = new File(TRACE_DIR, "trace-" + System.currentTimeMillis() + ".bin");
+		try
+		{
+			TRACE_DIR.mkdirs();
+			traceRecorder = new DelveTrace.Recorder(new FileOutputStream(file));
+			parser.setRecorder(traceRecorder);
+			// The recorder belongs to the client thread, so it's flushed there
+			traceFlush = executor.scheduleWithFixedDelay(() -> clientThread.invokeLater(this::flushTraceRecorder),
+					TRACE_FLUSH_SECONDS, TRACE_FLUSH_SECONDS, TimeUnit.SECONDS);
+			log.debug("Recording delve trace to {}", file);
+		}
+		catch (IOException e)
+		{
+			log.warn("Unable to record delve trace to {}", file, e);
+		}
+	}
+
+	private void flushTraceRecorder()
+	{
+		if (traceRecorder != null) traceRecorder.flush();
+	}
+
+	private void closeTraceRecorder()
+	{
+		if (traceRecorder == null) return;
+		if (parser != null) parser.setRecorder(null);
+		traceFlush.cancel(false);
+		traceFlush = null;
+		try
+		{
+			if (traceRecorder.isFailed()) log.warn("Delve trace stopped early after a write error");
+			traceRecorder.close();
+		}
+		catch (IOException e)
+		{
+			log.warn("Unable to close delve trace", e);
+		}
+		traceRecorder = null;
 	}
 
 	public String getCurrentGameMode()
@@ -150,61 +238,30 @@ public class DelveCalculatorPlugin extends Plugin
 				.collect(Collectors.joining("_"));
 	}
 
-	@Subscribe
-	public void onChatMessage(ChatMessage event)
+	private static DelveEventParser.ChatType chatType(ChatMessageType type)
 	{
-		if (event.getType() == ChatMessageType.GAMEMESSAGE || event.getType() == ChatMessageType.SPAM)
-		{
-			String message = Text.removeTags(event.getMessage());
-			if (message.contains("Delve level:") && message.contains("duration:"))
-			{
-				handleDelveCompletion(message);
-			}
-		}
-		
-		if (event.getType() == ChatMessageType.GAMEMESSAGE)
+		switch (type)
 		{
-			String message = Text.removeTags(event.getMessage());
-			if (message.equals("You have a funny feeling like you're being followed.") ||
-				message.equals("You feel something weird sneaking into your backpack.") ||
-				message.equals("You have a funny feeling like you would have been followed..."))
-			{
-				if (isInDelveRegion())
-				{
-					handleDropLogic(getCurrentGameMode(), ItemID.DOM);
-				}
-			}
+			case GAMEMESSAGE:
+				return DelveEventParser.ChatType.GAMEMESSAGE;
+			case SPAM:
+				return DelveEventParser.ChatType.SPAM;
+			default:
+				return null;
 		}
 	}
 
-	private void handleDelveCompletion(String message)
+	@Subscribe
+	public void onChatMessage(ChatMessage event)
 	{
-		String[] parts = message.split(" ");
-		for (int i = 0; i < parts.length; i++)
+		long start = System.nanoTime();
+		try
 		{
-			if (parts[i].equals("level:") && i + 1 < parts.length)
-			{
-				String levelText = parts[i + 1];
-				String gameMode = getCurrentGameMode();
-				if (levelText.equals("8+"))
-				{
-					if (panel != null) panel.incrementWavesPast8(gameMode);
-					break;
-				}
-				else
-				{
-					try
-					{
-						int level = Integer.parseInt(levelText);
-						if (level >= 1 && level <= 8)
-						{
-							if (panel != null) panel.incrementFloorKills(gameMode, level);
-							break;
-						}
-					}
-					catch (NumberFormatException ignored) {}
-				}
-			}
+			parser.onChatMessage(chatType(event.getType()), event.getMessage(), this::isInDelveRegion);
+		}
+		finally
+		{
+			metrics.record(DelveMetrics.Probe.CHAT_MESSAGE, start);
 		}
 	}
 
@@ -229,11 +286,45 @@ public class DelveCalculatorPlugin extends Plugin
 					sessionTimeoutTimer.restart();
 				}
 			}
+			if ("recordTrace".equals(event.getKey()))
+			{
+				clientThread.invokeLater(this::updateTraceRecorder);
+			}
+			if ("dropRateCorrections".equals(event.getKey()) && panel != null)
+			{
+				panel.applyDropRates();
+			}
+			if ("showOverlay".equals(event.getKey()) && overlay != null)
+			{
+				if (config.showOverlay()) overlayManager.add(overlay);
+				else overlayManager.remove(overlay);
+			}
 			updatePanelVisibility();
-			if (panel != null) panel.updateAllUI();
+			if (panel != null)
+			{
+				panel.refreshDisplayModes();
+				panel.configureAlerts();
+				panel.requestRefresh();
+			}
 		}
 	}
 
+	// Item prices need item definitions, which are read on the client thread
+	private void checkPrices()
+	{
+		long now = System.currentTimeMillis();
+		if (!prices.isStale(now)) return;
+		clientThread.invokeLater(() -> {
+			if (client.getGameState() != GameState.LOGGED_IN) return;
+			if (prices.refresh(itemManager::getItemPrice, now))
+			{
+				SwingUtilities.invokeLater(() -> {
+					if (panel != null) panel.updateAllUI();
+				});
+			}
+		});
+	}
+
 	@Subscribe
 	public void onWidgetLoaded(WidgetLoaded event)
 	{
@@ -261,34 +352,29 @@ public class DelveCalculatorPlugin extends Plugin
 
 	private void syncCollectionLog()
 	{
-		Widget itemsContainer = client.getWidget(WIDGET_GROUP_COLLECTION_LOG, WIDGET_COLLECTION_LOG_ITEMS);
-		if (itemsContainer == null || itemsContainer.isHidden()) return;
+		long start = System.nanoTime();
+		try
+		{
+			Widget itemsContainer = client.getWidget(WIDGET_GROUP_COLLECTION_LOG, WIDGET_COLLECTION_LOG_ITEMS);
+			if (itemsContainer == null || itemsContainer.isHidden()) return;
 
-		Widget[] children = itemsContainer.getChildren();
-		if (children == null) return;
+			Widget[] children = itemsContainer.getChildren();
+			if (children == null) return;
 
-		Map<Integer, Integer> foundDrops = new HashMap<>();
-		boolean isDelvePage = false;
-		for (Widget child : children)
-		{
-			int itemId = child.getItemId();
-			int quantity = child.getItemQuantity();
-			if (child.getOpacity() > 0) quantity = 0;
-
-			String name = itemManager.getItemComposition(itemId).getName();
-			if (name == null) continue;
-
-			for (Map.Entry<String, Integer> entry : UNIQUE_DROPS.entrySet()) {
-				if (entry.getKey().equalsIgnoreCase(name)) {
-					isDelvePage = true;
-					foundDrops.put(entry.getValue(), quantity);
-					break;
-				}
+			int[] itemIds = new int[children.length];
+			int[] quantities = new int[children.length];
+			int[] opacities = new int[children.length];
+			for (int i = 0; i < children.length; i++)
+			{
+				itemIds[i] = children[i].getItemId();
+				quantities[i] = children[i].getItemQuantity();
+				opacities[i] = children[i].getOpacity();
 			}
+			parser.onCollectionLog(itemIds, quantities, opacities);
 		}
-		if (isDelvePage && panel != null)
+		finally
 		{
-			panel.syncCollectionLogData(getCurrentGameMode(), foundDrops);
+			metrics.record(DelveMetrics.Probe.SYNC_COLLECTION_LOG, start);
 		}
 	}
 
@@ -298,7 +384,15 @@ public class DelveCalculatorPlugin extends Plugin
 		if (gameStateChanged.getGameState() != GameState.LOGGED_IN) return;
 		clientThread.invokeLater(() -> {
 			// Always update game mode for score tracking
-			if (panel != null) panel.switchGameMode(getCurrentGameMode());
+			if (panel != null)
+			{
+				panel.switchAccount(client.getAccountHash());
+				panel.switchGameMode(getCurrentGameMode());
+			}
+
+			// The overlay only draws in a region, whatever the panel settings
+			boolean inRegion = isInDelveRegion();
+			if (overlay != null) overlay.setInRegion(inRegion);
 
 			// Skip region tracking entirely if the configs are disabled
 			if (!config.onlyShowInRegion() && !config.autoOpenInRegion())
@@ -308,7 +402,7 @@ public class DelveCalculatorPlugin extends Plugin
 			}
 
 			boolean wasInDelveRegion = inDelveRegion;
-			inDelveRegion = isInDelveRegion();
+			inDelveRegion = inRegion;
 
 			if (inDelveRegion && !wasInDelveRegion)
 			{
@@ -407,95 +501,85 @@ public class DelveCalculatorPlugin extends Plugin
 		});
 	}
 
-	public static Map<Integer, DropRates> getDropRates()
-	{
-		return DROP_RATES_BY_LEVEL;
-	}
-
-	public static Map<String, Integer> getUniqueDropsMap()
-	{
-		return UNIQUE_DROPS;
-	}
-
 	private void updateKillCounts()
 	{
-		Map<Integer, Integer> levelKills = new HashMap<>();
-		int wavesPast8 = 0;
-		for (int i = 0; i < 9; i++)
+		long start = System.nanoTime();
+		try
 		{
-			int childId = 46 + (i * 3);
-			Widget widget = client.getWidget(WIDGET_GROUP_SCOREBOARD, childId);
-			if (widget != null && widget.getText() != null && !widget.getText().isEmpty())
+			String[] levelTexts = new String[9];
+			for (int i = 0; i < levelTexts.length; i++)
 			{
-				String text = widget.getText().trim();
-				try
-				{
-					String numberText = text.replaceAll("[^0-9]", "");
-					if (!numberText.isEmpty())
-					{
-						int kills = Integer.parseInt(numberText);
-						if (i == 8) wavesPast8 = kills;
-						else levelKills.put(i + 1, kills);
-					}
-				}
-				catch (NumberFormatException ignored) {}
+				Widget widget = client.getWidget(WIDGET_GROUP_SCOREBOARD, 46 + (i * 3));
+				if (widget != null) levelTexts[i] = widget.getText();
 			}
+			parser.onScoreboard(levelTexts);
 		}
-		if (panel != null)
+		finally
 		{
-			panel.syncOverallData(getCurrentGameMode(), levelKills, wavesPast8);
+			metrics.record(DelveMetrics.Probe.UPDATE_KILL_COUNTS, start);
 		}
 	}
 
 	private void scanLootInterface()
 	{
-		Widget lootInterface = client.getWidget(WIDGET_GROUP_LOOT, WIDGET_LOOT_CONTENTS);
-		Widget claimHeader = client.getWidget(WIDGET_GROUP_LOOT, WIDGET_LOOT_CLAIM_HEADER);
-		if (lootInterface == null || lootInterface.isHidden() || claimHeader == null || claimHeader.isHidden()) return;
+		long start = System.nanoTime();
+		try
+		{
+			Widget lootInterface = client.getWidget(WIDGET_GROUP_LOOT, WIDGET_LOOT_CONTENTS);
+			Widget claimHeader = client.getWidget(WIDGET_GROUP_LOOT, WIDGET_LOOT_CLAIM_HEADER);
+			if (lootInterface == null || lootInterface.isHidden() || claimHeader == null || claimHeader.isHidden()) return;
 
-		Widget[] children = lootInterface.getChildren();
-		if (children == null) return;
+			Widget[] children = lootInterface.getChildren();
+			if (children == null) return;
 
-		for (Widget item : children)
-		{
-			int itemId = item.getItemId();
-			if (itemId <= -1) continue;
-			String name = itemManager.getItemComposition(itemId).getName();
-			if (name == null) continue;
-			for (Map.Entry<String, Integer> entry : UNIQUE_DROPS.entrySet())
+			int[] itemIds = new int[children.length];
+			for (int i = 0; i < children.length; i++)
 			{
-				if (entry.getKey().equalsIgnoreCase(name))
-				{
-					if (!name.equalsIgnoreCase("Dom"))
-					{
-						handleDropLogic(getCurrentGameMode(), entry.getValue());
-					}
-					break;
-				}
+				itemIds[i] = children[i].getItemId();
 			}
+			parser.onLootInterface(itemIds);
+		}
+		finally
+		{
+			metrics.record(DelveMetrics.Probe.SCAN_LOOT, start);
 		}
 	}
 
-	private void handleDropLogic(String gameMode, int itemId)
+	/**
+	 * Applies parsed events to the panel, which may already be gone during shutdown.
+	 */
+	private class PanelListener implements DelveEventParser.Listener
 	{
-		if (panel != null) panel.recordDrop(gameMode, itemId);
-	}
+		@Override
+		public void onLevelComplete(String mode, int level)
+		{
+			if (panel == null) return;
+			if (level == 9) panel.incrementWavesPast8(mode);
+			else panel.incrementFloorKills(mode, level);
+		}
 
-	public static class DropRates
-	{
-		public final double overallChance;
-		public final double mokhaiotlCloth;
-		public final double eyeOfAyak;
-		public final double avernicTreads;
-		public final double dom;
+		@Override
+		public void onUniqueDrop(String mode, int itemId)
+		{
+			if (panel != null) panel.recordDrop(mode, itemId);
+		}
+
+		@Override
+		public void onDeath(String mode)
+		{
+			if (panel != null) panel.recordDeath(mode);
+		}
+
+		@Override
+		public void onScoreboard(String mode, Map<Integer, Integer> levelKills, int wavesPast8)
+		{
+			if (panel != null) panel.syncOverallData(mode, levelKills, wavesPast8);
+		}
 
-		public DropRates(double overall, double mokhaiotl, double eye, double avernic, double dom)
+		@Override
+		public void onCollectionLog(String mode, Map<Integer, Integer> obtained)
 		{
-			this.overallChance = overall;
-			this.mokhaiotlCloth = mokhaiotl;
-			this.eyeOfAyak = eye;
-			this.avernicTreads = avernic;
-			this.dom = dom;
+			if (panel != null) panel.syncCollectionLogData(mode, obtained);
 		}
 	}
 }
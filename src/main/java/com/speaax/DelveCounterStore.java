@@ -0,0 +1,503 @@
+package com.speaax;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Profile counts shared between clients running on the same account. Every profile slot is a
+ * resettable counter: a base value stamped with a version, plus one grow-only count per client
+ * id on top of it. A set (scoreboard sync, reset) replaces the base with a newer version and
+ * drops the counts under the old one, an increment only raises this client's own count. Merging
+ * keeps the newest base and the highest count per client, so applying a record twice or in any
+ * order gives the same value and concurrent clients never undo each other's kills.
+ *
+ * <p>Records are appended to one log file while holding a {@link FileChannel} lock on a separate
+ * lock file. A flush reads only the records appended since this client's last flush, then appends
+ * the entries changed locally, so its cost follows the number of changes rather than the size of
+ * the store. The lock is only tried, so a flush that finds another client holding it leaves its
+ * changes for a later flush instead of waiting. The log is compacted into a new generation once it
+ * grows past {@value #COMPACT_BYTES} bytes, folding the counts of every client into the bases, and
+ * a client that sees a new generation re-reads it from the start.</p>
+ *
+ * <p>Slots 1-9 hold level kills (9 = waves past 8) and slots from {@link DelveHistory#DROP_CODE_BASE}
+ * hold unique drops, matching the history codes.</p>
+ */
+@Slf4j
+public class DelveCounterStore
+{
+	private static final int MAGIC = 0x44434E54; // "DCNT"
+	private static final int HEADER_SIZE = 12;
+	private static final int RECORD_SET = 1;
+	private static final int RECORD_COUNT = 2;
+	private static final long COMPACT_BYTES = 1 << 20;
+
+	private static class Key
+	{
+		final String profile;
+		final int slot;
+
+		Key(String profile, int slot)
+		{
+			this.profile = profile;
+			this.slot = slot;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return slot == other.slot && profile.equals(other.profile);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return profile.hashCode() * 31 + slot;
+		}
+	}
+
+	private static class Counter
+	{
+		long version;
+		int base;
+		final Map<Long, Integer> counts = new HashMap<>();
+		boolean setLocally;
+		// This client's increments since the last flush, kept if another client's set arrives first
+		int unflushed;
+
+		int value()
+		{
+			long value = base;
+			for (int count : counts.values())
+			{
+				value += count;
+			}
+			return (int) Math.min(Integer.MAX_VALUE, value);
+		}
+	}
+
+	private final File logFile;
+	private final File lockFile;
+	private final long clientId;
+	private final Map<Key, Counter> counters = new HashMap<>();
+	private final Set<Key> dirty = new LinkedHashSet<>();
+	private long generation;
+	private long offset;
+	private boolean flushPending;
+
+	/**
+	 * @param clientId identifies this client's counts, unique per running client
+	 */
+	public DelveCounterStore(File dir, long clientId)
+	{
+		this.logFile = new File(dir, "counters.log");
+		this.lockFile = new File(dir, "counters.lock");
+		this.clientId = clientId;
+	}
+
+	public static long newClientId()
+	{
+		return ThreadLocalRandom.current().nextLong();
+	}
+
+	public static int levelSlot(int level)
+	{
+		return level;
+	}
+
+	/**
+	 * @return the slot for a unique, or -1 for items that aren't tracked
+	 */
+	public static int itemSlot(int itemId)
+	{
+		int item = RollingStats.itemIndex(itemId);
+		return item < 0 ? -1 : DelveHistory.DROP_CODE_BASE + item;
+	}
+
+	public synchronized boolean isEmpty()
+	{
+		return counters.isEmpty();
+	}
+
+	public synchronized void increment(String profile, int slot, int amount)
+	{
+		if (slot < 0 || amount <= 0) return;
+		Key key = new Key(profile, slot);
+		Counter counter = counters.computeIfAbsent(key, k -> new Counter());
+		counter.counts.merge(clientId, amount, DelveCounterStore::saturatedAdd);
+		counter.unflushed = saturatedAdd(counter.unflushed, amount);
+		dirty.add(key);
+	}
+
+	public synchronized void set(String profile, int slot, int value)
+	{
+		if (slot < 0) return;
+		Key key = new Key(profile, slot);
+		Counter counter = counters.get(key);
+		if (counter == null)
+		{
+			if (value == 0) return;
+			counter = new Counter();
+			counters.put(key, counter);
+		}
+		else if (counter.value() == value) return;
+		counter.version = nextVersion(counter.version);
+		counter.base = value;
+		counter.counts.clear();
+		counter.setLocally = true;
+		counter.unflushed = 0;
+		dirty.add(key);
+	}
+
+	public synchronized Set<String> getProfiles()
+	{
+		Set<String> profiles = new HashSet<>();
+		for (Key key : counters.keySet())
+		{
+			profiles.add(key.profile);
+		}
+		return profiles;
+	}
+
+	/**
+	 * Overwrites a profile's counts with the merged values of every client.
+	 */
+	public synchronized void apply(String profile, DelveCalculatorData.DelveProfile into)
+	{
+		for (Map.Entry<Key, Counter> entry : counters.entrySet())
+		{
+			Key key = entry.getKey();
+			if (!key.profile.equals(profile)) continue;
+			int value = entry.getValue().value();
+			if (key.slot >= DelveHistory.DROP_CODE_BASE)
+			{
+				into.getObtainedUniques().put(RollingStats.ITEM_IDS[key.slot - DelveHistory.DROP_CODE_BASE], value);
+			}
+			else if (key.slot == 9)
+			{
+				into.setWavesPast8(value);
+			}
+			else
+			{
+				into.getLevelKills().put(key.slot, value);
+			}
+		}
+		into.invalidateLuck();
+	}
+
+	/**
+	 * Sets every slot from an existing profile, used once to move stored data into a new store.
+	 */
+	public synchronized void seed(String profile, DelveCalculatorData.DelveProfile from)
+	{
+		for (Map.Entry<Integer, Integer> entry : from.getLevelKills().entrySet())
+		{
+			if (entry.getKey() >= 1 && entry.getKey() <= 8) set(profile, levelSlot(entry.getKey()), entry.getValue());
+		}
+		set(profile, levelSlot(9), from.getWavesPast8());
+		for (Map.Entry<Integer, Integer> entry : from.getObtainedUniques().entrySet())
+		{
+			set(profile, itemSlot(entry.getKey()), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return true if another client appended or compacted since the last flush, checked without locking
+	 */
+	public synchronized boolean hasExternalChanges()
+	{
+		return logFile.length() != offset;
+	}
+
+	/**
+	 * @return true if the last flush found the file locked by another client and should be retried
+	 */
+	public synchronized boolean isFlushPending()
+	{
+		return flushPending;
+	}
+
+	/**
+	 * Merges records appended by other clients and appends this client's changes, under the file lock.
+	 * Never waits for the lock: if another client holds it, local changes stay unflushed and
+	 * {@link #isFlushPending()} is set until a later flush gets it.
+	 *
+	 * @return profiles whose values were changed by other clients, or null if the file was locked
+	 */
+	public synchronized Set<String> flush() throws IOException
+	{
+		File dir = logFile.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+
+		try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+			 FileChannel lockChannel = lockAccess.getChannel();
+			 FileLock lock = lockChannel.tryLock())
+		{
+			if (lock == null)
+			{
+				flushPending = true;
+				return null;
+			}
+			Set<String> changed;
+			long size;
+			try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				changed = readTail(channel);
+				appendDirty(channel);
+				size = channel.size();
+			}
+			flushPending = false;
+
+			// The log is closed first, since Windows can't replace a file that is still open
+			if (size > COMPACT_BYTES)
+			{
+				try
+				{
+					compact();
+				}
+				catch (IOException e)
+				{
+					// The log is still valid, so the merged changes are kept and the next flush tries again
+					log.debug("Error compacting delve counters", e);
+				}
+			}
+			return changed;
+		}
+	}
+
+	private Set<String> readTail(FileChannel channel) throws IOException
+	{
+		Set<String> changed = new HashSet<>();
+		if (channel.size() < HEADER_SIZE)
+		{
+			// New or torn-at-creation log, start a generation
+			generation = ThreadLocalRandom.current().nextLong();
+			channel.truncate(0);
+			channel.write(header(generation), 0);
+			offset = HEADER_SIZE;
+			return changed;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		header.flip();
+		long fileGeneration = header.getInt() == MAGIC ? header.getLong() : 0;
+		if (fileGeneration != generation || offset > channel.size())
+		{
+			generation = fileGeneration;
+			offset = HEADER_SIZE;
+		}
+
+		int length = (int) (channel.size() - offset);
+		if (length <= 0) return changed;
+		ByteBuffer tail = ByteBuffer.allocate(length);
+		while (tail.hasRemaining() && channel.read(tail, offset + tail.position()) >= 0) {}
+
+		DelveSnapshotCodec.Input in = new DelveSnapshotCodec.Input(tail.array());
+		int good = 0;
+		try
+		{
+			while (in.hasRemaining())
+			{
+				int start = in.position();
+				int type = in.readByte();
+				String profile = in.readString();
+				int slot = in.readVarint();
+				long version = in.readVarlong();
+				long client = type == RECORD_COUNT ? in.readVarlong() : 0;
+				int value = in.readVarint();
+				int end = in.position();
+				int crc = in.readByte() | in.readByte() << 8 | in.readByte() << 16 | in.readByte() << 24;
+				if (crc != crc(tail.array(), start, end)) break;
+
+				if (merge(type, new Key(profile, slot), version, client, value)) changed.add(profile);
+				good = in.position();
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			// A record cut short by a crash mid-append
+		}
+
+		if (good < length)
+		{
+			log.debug("Dropping {} bytes of incomplete delve counter records", length - good);
+			channel.truncate(offset + good);
+		}
+		offset += good;
+		return changed;
+	}
+
+	private boolean merge(int type, Key key, long version, long client, int value)
+	{
+		Counter counter = counters.computeIfAbsent(key, k -> new Counter());
+		int before = counter.value();
+		if (type == RECORD_SET)
+		{
+			if (version <= counter.version) return false;
+			counter.version = version;
+			counter.base = value;
+			counter.counts.clear();
+			counter.setLocally = false;
+			if (counter.unflushed > 0) counter.counts.put(clientId, counter.unflushed);
+		}
+		else if (type == RECORD_COUNT)
+		{
+			// Counts under an older base were reset away
+			if (version != counter.version) return false;
+			counter.counts.merge(client, value, Math::max);
+		}
+		return counter.value() != before && client != clientId;
+	}
+
+	private void appendDirty(FileChannel channel) throws IOException
+	{
+		if (dirty.isEmpty()) return;
+		DelveSnapshotCodec.Output out = new DelveSnapshotCodec.Output();
+		for (Key key : dirty)
+		{
+			Counter counter = counters.get(key);
+			if (counter.setLocally)
+			{
+				writeRecord(out, RECORD_SET, key, counter.version, 0, counter.base);
+				counter.setLocally = false;
+			}
+			counter.unflushed = 0;
+			Integer own = counter.counts.get(clientId);
+			if (own != null)
+			{
+				writeRecord(out, RECORD_COUNT, key, counter.version, clientId, own);
+			}
+		}
+		dirty.clear();
+
+		ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+		long position = channel.size();
+		while (bytes.hasRemaining())
+		{
+			position += channel.write(bytes, position);
+		}
+		channel.force(false);
+		offset = position;
+	}
+
+	/**
+	 * Rewrites the merged state as a new generation, renamed over the log while still holding the
+	 * lock. Client ids are new on every launch, so each slot's counts are folded into a base one
+	 * version newer rather than kept per client. That is safe because every count was appended by
+	 * now and a client re-reads a new generation before appending to it: the newer base drops the
+	 * counts it already holds, keeping only increments that weren't appended yet. A set made after
+	 * the old base is still newer than the folded one.
+	 */
+	private void compact() throws IOException
+	{
+		long newGeneration = ThreadLocalRandom.current().nextLong();
+		DelveSnapshotCodec.Output out = new DelveSnapshotCodec.Output();
+		for (byte b : header(newGeneration).array())
+		{
+			out.writeByte(b);
+		}
+		for (Map.Entry<Key, Counter> entry : counters.entrySet())
+		{
+			Counter counter = entry.getValue();
+			writeRecord(out, RECORD_SET, entry.getKey(), foldedVersion(counter), 0, counter.value());
+		}
+
+		File temp = new File(logFile.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			channel.write(ByteBuffer.wrap(out.toByteArray()));
+			channel.force(true);
+		}
+		try
+		{
+			Files.move(temp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		// Only adopted once the new log is in place, a failed compaction leaves the old state valid
+		for (Counter counter : counters.values())
+		{
+			counter.version = foldedVersion(counter);
+			counter.base = counter.value();
+			counter.counts.clear();
+		}
+		generation = newGeneration;
+		offset = out.size();
+	}
+
+	// Unchanged when there are no counts to fold, so compacting alone doesn't make other clients reset
+	private static long foldedVersion(Counter counter)
+	{
+		return counter.counts.isEmpty() ? counter.version : counter.version + 1;
+	}
+
+	private static void writeRecord(DelveSnapshotCodec.Output out, int type, Key key, long version, long client, int value)
+	{
+		DelveSnapshotCodec.Output record = new DelveSnapshotCodec.Output();
+		record.writeByte(type);
+		record.writeString(key.profile);
+		record.writeVarint(key.slot);
+		record.writeVarlong(version);
+		if (type == RECORD_COUNT) record.writeVarlong(client);
+		record.writeVarint(value);
+		byte[] bytes = record.toByteArray();
+		for (byte b : bytes)
+		{
+			out.writeByte(b);
+		}
+		int crc = crc(bytes, 0, bytes.length);
+		out.writeByte(crc);
+		out.writeByte(crc >>> 8);
+		out.writeByte(crc >>> 16);
+		out.writeByte(crc >>> 24);
+	}
+
+	private static int saturatedAdd(int a, int b)
+	{
+		return (int) Math.min(Integer.MAX_VALUE, (long) a + b);
+	}
+
+	private static int crc(byte[] bytes, int from, int to)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(bytes, from, to - from);
+		return (int) crc.getValue();
+	}
+
+	private static ByteBuffer header(long generation)
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putLong(generation);
+		header.flip();
+		return header;
+	}
+
+	// Later than any version seen, with the client id in the low bits to order simultaneous sets
+	private long nextVersion(long previous)
+	{
+		long version = (System.currentTimeMillis() << 16) | (clientId & 0xFFFF);
+		return Math.max(version, ((previous >>> 16) + 1) << 16 | (clientId & 0xFFFF));
+	}
+}
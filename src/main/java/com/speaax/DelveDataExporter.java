@@ -0,0 +1,201 @@
+package com.speaax;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Streams every stored profile, plus the per-mode event history files, to CSV or
+ * newline-delimited JSON. Rows are written as they are produced, so memory use
+ * does not depend on how much history has been recorded.
+ *
+ * <p>Every row has the same fields: {@code type} (kills, drop, event or death),
+ * {@code profile}, {@code level} (9 = waves past 8), {@code item_id}, {@code count}
+ * and {@code timestamp}. {@link DelveDataImporter} reads the same layout back.</p>
+ */
+public class DelveDataExporter
+{
+	public enum Format
+	{
+		CSV("csv"),
+		NDJSON("ndjson");
+
+		private final String extension;
+
+		Format(String extension)
+		{
+			this.extension = extension;
+		}
+
+		public String getExtension()
+		{
+			return extension;
+		}
+	}
+
+	public interface ProgressListener
+	{
+		void onProgress(long done, long total);
+	}
+
+	static final String CSV_HEADER = "type,profile,level,item_id,count,timestamp";
+	static final String HISTORY_EXTENSION = ".history";
+	private static final int HISTORY_RECORD_SIZE = 9;
+	private static final int PROGRESS_INTERVAL = 1 << 16;
+
+	private final Format format;
+	private final ProgressListener listener;
+	private Writer out;
+	private JsonWriter json;
+	private long done;
+	private long total;
+
+	public DelveDataExporter(Format format, ProgressListener listener)
+	{
+		this.format = format;
+		this.listener = listener;
+	}
+
+	/**
+	 * @param profiles snapshot of {@link DelveCalculatorData#getProfiles()}
+	 * @param historyDir directory holding the {@link DelveHistory} files, may be null
+	 */
+	public void export(Map<String, DelveCalculatorData.DelveProfile> profiles, File historyDir, File target) throws IOException
+	{
+		File[] historyFiles = historyDir == null ? null : historyDir.listFiles((dir, name) -> name.endsWith(HISTORY_EXTENSION));
+		total = 0;
+		for (DelveCalculatorData.DelveProfile profile : profiles.values())
+		{
+			total += profile.getLevelKills().size() + 1 + profile.getObtainedUniques().size();
+		}
+		if (historyFiles != null)
+		{
+			for (File file : historyFiles)
+			{
+				total += file.length() / HISTORY_RECORD_SIZE;
+			}
+		}
+
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(target.toPath()), StandardCharsets.UTF_8), 1 << 16))
+		{
+			out = writer;
+			if (format == Format.CSV)
+			{
+				out.write(CSV_HEADER);
+				out.write('\n');
+			}
+			else
+			{
+				json = new JsonWriter(out);
+				json.setLenient(true);
+			}
+
+			for (Map.Entry<String, DelveCalculatorData.DelveProfile> entry : profiles.entrySet())
+			{
+				writeProfile(entry.getKey(), entry.getValue());
+			}
+			if (historyFiles != null)
+			{
+				for (File file : historyFiles)
+				{
+					String name = file.getName();
+					writeHistory(name.substring(0, name.length() - HISTORY_EXTENSION.length()), file);
+				}
+			}
+			out.flush();
+		}
+		finally
+		{
+			out = null;
+			json = null;
+		}
+		listener.onProgress(total, total);
+	}
+
+	private void writeProfile(String key, DelveCalculatorData.DelveProfile profile) throws IOException
+	{
+		for (Map.Entry<Integer, Integer> kills : profile.getLevelKills().entrySet())
+		{
+			writeRow("kills", key, kills.getKey(), -1, kills.getValue(), -1);
+		}
+		writeRow("kills", key, 9, -1, profile.getWavesPast8(), -1);
+		for (Map.Entry<Integer, Integer> drop : profile.getObtainedUniques().entrySet())
+		{
+			writeRow("drop", key, -1, drop.getKey(), drop.getValue(), -1);
+		}
+	}
+
+	private void writeHistory(String mode, File file) throws IOException
+	{
+		// Only read up to the length seen now, appends made during the export are left out
+		long records = file.length() / HISTORY_RECORD_SIZE;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+		{
+			for (long i = 0; i < records; i++)
+			{
+				long time = in.readLong();
+				int code = in.readByte();
+				if (code >= DelveHistory.DROP_CODE_BASE)
+				{
+					int item = code - DelveHistory.DROP_CODE_BASE;
+					if (item >= RollingStats.ITEM_IDS.length) continue;
+					writeRow("event", mode, -1, RollingStats.ITEM_IDS[item], 1, time);
+				}
+				else if (code == DelveHistory.DEATH_CODE)
+				{
+					writeRow("death", mode, -1, -1, 1, time);
+				}
+				else
+				{
+					writeRow("event", mode, code, -1, 1, time);
+				}
+			}
+		}
+	}
+
+	private void writeRow(String type, String profile, int level, int itemId, int count, long timestamp) throws IOException
+	{
+		if (format == Format.CSV)
+		{
+			out.write(type);
+			out.write(',');
+			out.write(profile);
+			out.write(',');
+			if (level >= 0) out.write(Integer.toString(level));
+			out.write(',');
+			if (itemId >= 0) out.write(Integer.toString(itemId));
+			out.write(',');
+			out.write(Integer.toString(count));
+			out.write(',');
+			if (timestamp >= 0) out.write(Long.toString(timestamp));
+			out.write('\n');
+		}
+		else
+		{
+			json.beginObject();
+			json.name("type").value(type);
+			json.name("profile").value(profile);
+			if (level >= 0) json.name("level").value(level);
+			if (itemId >= 0) json.name("item_id").value(itemId);
+			json.name("count").value(count);
+			if (timestamp >= 0) json.name("timestamp").value(timestamp);
+			json.endObject();
+			out.write('\n');
+		}
+
+		if (++done % PROGRESS_INTERVAL == 0)
+		{
+			listener.onProgress(done, total);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package com.speaax;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams CSV or newline-delimited JSON in the layout written by {@link DelveDataExporter}
+ * and sums it into per-mode totals. Nothing is applied while reading, so a file with an
+ * invalid row is rejected as a whole, and memory only grows with the number of modes.
+ *
+ * <p>Summary rows ({@code kills}, {@code drop}) take precedence over {@code event} rows
+ * for the same profile, so importing a full export does not count kills twice.
+ * Profiles ending in {@code :MANUAL} are skipped because they are subsets of the
+ * mode's all-time data, and {@code death} rows because no profile counts deaths.</p>
+ */
+public class DelveDataImporter
+{
+	public static class Totals
+	{
+		final long[] levelKills = new long[RollingStats.LEVEL_SLOTS];
+		final long[] drops = new long[RollingStats.ITEM_IDS.length];
+		private final long[] eventLevelKills = new long[RollingStats.LEVEL_SLOTS];
+		private final long[] eventDrops = new long[RollingStats.ITEM_IDS.length];
+		private boolean hasSummary;
+
+		/**
+		 * Adds these totals to a stored profile, level 9 going to waves past 8.
+		 */
+		public void mergeInto(DelveCalculatorData.DelveProfile profile)
+		{
+			for (int level = 1; level < levelKills.length; level++)
+			{
+				if (levelKills[level] == 0) continue;
+				if (level == 9)
+				{
+					profile.setWavesPast8(saturatedAdd(profile.getWavesPast8(), levelKills[level]));
+				}
+				else
+				{
+					profile.getLevelKills().put(level, saturatedAdd(profile.getLevelKills().getOrDefault(level, 0), levelKills[level]));
+				}
+			}
+			for (int item = 0; item < drops.length; item++)
+			{
+				if (drops[item] == 0) continue;
+				int itemId = RollingStats.ITEM_IDS[item];
+				profile.getObtainedUniques().put(itemId, saturatedAdd(profile.getObtainedUniques().getOrDefault(itemId, 0), drops[item]));
+			}
+			profile.invalidateLuck();
+		}
+
+		private static int saturatedAdd(int current, long add)
+		{
+			return (int) Math.min(Integer.MAX_VALUE, current + add);
+		}
+
+		private void finish()
+		{
+			if (hasSummary) return;
+			System.arraycopy(eventLevelKills, 0, levelKills, 0, levelKills.length);
+			System.arraycopy(eventDrops, 0, drops, 0, drops.length);
+		}
+	}
+
+	private static final int PROGRESS_INTERVAL = 1 << 16;
+
+	private final DelveDataExporter.ProgressListener listener;
+	private final Map<String, Totals> totals = new HashMap<>();
+	private long rows;
+
+	// Current row, reused for every record
+	private String type;
+	private String profile;
+	private int level;
+	private int itemId;
+	private long count;
+
+	public DelveDataImporter(DelveDataExporter.ProgressListener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Reads the whole stream, detecting the format from its first character.
+	 *
+	 * @return totals keyed by game mode, an empty key meaning the current mode
+	 * @throws IOException if the stream can't be read or a row is invalid
+	 */
+	public Map<String, Totals> read(Reader source) throws IOException
+	{
+		BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source, 1 << 16);
+		reader.mark(1);
+		int first = reader.read();
+		while (first != -1 && Character.isWhitespace(first))
+		{
+			reader.mark(1);
+			first = reader.read();
+		}
+		if (first == -1) return totals;
+		reader.reset();
+
+		if (first == '{')
+		{
+			readJson(reader);
+		}
+		else
+		{
+			readCsv(reader);
+		}
+
+		for (Totals modeTotals : totals.values())
+		{
+			modeTotals.finish();
+		}
+		listener.onProgress(rows, rows);
+		return totals;
+	}
+
+	private void readCsv(BufferedReader reader) throws IOException
+	{
+		int typeColumn = 0, profileColumn = 1, levelColumn = 2, itemColumn = 3, countColumn = 4;
+		long lineNumber = 0;
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			if (line.isEmpty()) continue;
+			String[] fields = line.split(",", -1);
+
+			if (lineNumber == 1 && !isRowType(fields[0].trim()))
+			{
+				typeColumn = indexOf(fields, "type");
+				profileColumn = indexOf(fields, "profile");
+				levelColumn = indexOf(fields, "level");
+				itemColumn = indexOf(fields, "item_id");
+				countColumn = indexOf(fields, "count");
+				if (typeColumn < 0) throw new IOException("Header is missing a type column");
+				continue;
+			}
+
+			try
+			{
+				type = field(fields, typeColumn);
+				profile = field(fields, profileColumn);
+				String levelText = field(fields, levelColumn);
+				String itemText = field(fields, itemColumn);
+				String countText = field(fields, countColumn);
+				level = levelText.isEmpty() ? -1 : Integer.parseInt(levelText);
+				itemId = itemText.isEmpty() ? -1 : Integer.parseInt(itemText);
+				count = countText.isEmpty() ? 1 : Long.parseLong(countText);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+			}
+			accept(lineNumber);
+		}
+	}
+
+	private void readJson(BufferedReader reader) throws IOException
+	{
+		JsonReader json = new JsonReader(reader);
+		json.setLenient(true);
+		long lineNumber = 0;
+		while (json.peek() != JsonToken.END_DOCUMENT)
+		{
+			lineNumber++;
+			type = "";
+			profile = "";
+			level = -1;
+			itemId = -1;
+			count = 1;
+
+			json.beginObject();
+			while (json.hasNext())
+			{
+				switch (json.nextName())
+				{
+					case "type":
+						type = json.nextString();
+						break;
+					case "profile":
+						profile = json.nextString();
+						break;
+					case "level":
+						level = json.nextInt();
+						break;
+					case "item_id":
+						itemId = json.nextInt();
+						break;
+					case "count":
+						count = json.nextLong();
+						break;
+					default:
+						json.skipValue();
+						break;
+				}
+			}
+			json.endObject();
+			accept(lineNumber);
+		}
+	}
+
+	private void accept(long lineNumber) throws IOException
+	{
+		if (++rows % PROGRESS_INTERVAL == 0)
+		{
+			listener.onProgress(rows, 0);
+		}
+		// Deaths only feed the depth strategy, which is measured from local history
+		if (profile.endsWith(":MANUAL") || type.equals("death")) return;
+		if (count < 0) throw new IOException("Line " + lineNumber + ": negative count " + count);
+
+		boolean summary;
+		switch (type)
+		{
+			case "kills":
+			case "drop":
+				summary = true;
+				break;
+			case "event":
+				summary = false;
+				break;
+			default:
+				throw new IOException("Line " + lineNumber + ": unknown row type '" + type + "'");
+		}
+
+		Totals modeTotals = totals.computeIfAbsent(profile, k -> new Totals());
+		if (summary) modeTotals.hasSummary = true;
+
+		if (type.equals("drop") || (!summary && itemId >= 0))
+		{
+			int item = RollingStats.itemIndex(itemId);
+			if (item < 0 || !DelveRates.getUniqueDropsMap().containsValue(itemId))
+			{
+				throw new IOException("Line " + lineNumber + ": " + itemId + " is not a delve unique");
+			}
+			(summary ? modeTotals.drops : modeTotals.eventDrops)[item] += count;
+		}
+		else
+		{
+			if (level != 1 && !DelveRates.getDropRates().containsKey(level))
+			{
+				throw new IOException("Line " + lineNumber + ": invalid level " + level);
+			}
+			(summary ? modeTotals.levelKills : modeTotals.eventLevelKills)[level] += count;
+		}
+	}
+
+	private static boolean isRowType(String value)
+	{
+		return value.equals("kills") || value.equals("drop") || value.equals("event") || value.equals("death");
+	}
+
+	private static int indexOf(String[] header, String name)
+	{
+		for (int i = 0; i < header.length; i++)
+		{
+			if (header[i].trim().equalsIgnoreCase(name)) return i;
+		}
+		return -1;
+	}
+
+	private static String field(String[] fields, int column)
+	{
+		return column >= 0 && column < fields.length ? fields[column].trim() : "";
+	}
+}
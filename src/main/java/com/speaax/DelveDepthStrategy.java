@@ -0,0 +1,319 @@
+package com.speaax;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Finds how deep to delve before banking for the most unique value per hour, from the player's
+ * own level times and deaths in the mode's {@link DelveHistory}.
+ *
+ * <p>Unclaimed rewards are lost on death, so going deeper trades better drop rates against the
+ * value at risk and the time per level. Dom is a pet that goes straight to the player, so it is
+ * never at risk. A policy banks after a fixed depth, or earlier as soon as an unclaimed unique
+ * is held from a given depth on. Each policy is evaluated exactly by a forward pass over depth
+ * that carries the chance of being alive with and without an unclaimed unique and the expected
+ * unclaimed value, giving the expected value banked and time spent per run. All policies up to {@value #MAX_WAVES} waves past 8 are evaluated in parallel and the best
+ * rate wins. The answer is cached until the history grows or the items or rate table change.</p>
+ *
+ * <p>Depths 1-8 are the levels and deeper ones are waves past 8, which all share level 9's rates,
+ * time and death chance.</p>
+ */
+public class DelveDepthStrategy
+{
+	static final int MAX_WAVES = 20;
+	static final int MAX_DEPTH = 8 + MAX_WAVES;
+
+	// Gaps longer than these are breaks rather than play and aren't measured
+	private static final long MAX_LEVEL_GAP = 10 * 60_000L;
+	private static final long MAX_RUN_GAP = 30 * 60_000L;
+	private static final int MIN_SAMPLES = 3;
+	// Used until enough levels were timed, level 1 includes getting back to the start
+	private static final double DEFAULT_RUN_START_MILLIS = 180_000;
+	private static final double DEFAULT_LEVEL_MILLIS = 90_000;
+	// Death chances are smoothed towards the level above, starting from this at level 1
+	private static final double PRIOR_DEATH_CHANCE = 0.02;
+	private static final double PRIOR_ATTEMPTS = 10;
+
+	/**
+	 * Level times and deaths read incrementally from one history.
+	 */
+	static class Measurements
+	{
+		private final DelveHistory history;
+		private final long[] durationSum = new long[RollingStats.LEVEL_SLOTS];
+		private final int[] durationCount = new int[RollingStats.LEVEL_SLOTS];
+		private final int[] completions = new int[RollingStats.LEVEL_SLOTS];
+		private final int[] deaths = new int[RollingStats.LEVEL_SLOTS];
+		private int depth;
+		private long lastTime = -1;
+		private int readPosition;
+
+		Measurements(DelveHistory history)
+		{
+			this.history = history;
+		}
+
+		/**
+		 * @return true if new events were read
+		 */
+		boolean update()
+		{
+			int before = readPosition;
+			readPosition = history.read(readPosition, this::accept);
+			return readPosition != before;
+		}
+
+		// A level's time is the gap since the previous completion of the same run, level 1's since the last run ended
+		private void accept(long time, int code)
+		{
+			if (code >= DelveHistory.DROP_CODE_BASE) return;
+			long gap = lastTime < 0 ? -1 : time - lastTime;
+			lastTime = time;
+
+			if (code == DelveHistory.DEATH_CODE)
+			{
+				deaths[Math.min(depth + 1, 9)]++;
+				depth = 0;
+				return;
+			}
+			if (code < 1 || code > 9) return;
+
+			long maxGap = code == 1 ? MAX_RUN_GAP : MAX_LEVEL_GAP;
+			boolean continuesRun = code == 1 || code == depth + 1 || (code == 9 && depth >= 8);
+			if (continuesRun && gap > 0 && gap <= maxGap)
+			{
+				durationSum[code] += gap;
+				durationCount[code]++;
+			}
+			completions[code]++;
+			depth = code;
+		}
+
+		int getLevels()
+		{
+			int levels = 0;
+			for (int count : completions)
+			{
+				levels += count;
+			}
+			return levels;
+		}
+
+		int getDeaths()
+		{
+			int total = 0;
+			for (int count : deaths)
+			{
+				total += count;
+			}
+			return total;
+		}
+
+		double[] getLevelMillis()
+		{
+			double[] millis = new double[RollingStats.LEVEL_SLOTS];
+			for (int level = 1; level <= 9; level++)
+			{
+				if (durationCount[level] >= MIN_SAMPLES) millis[level] = (double) durationSum[level] / durationCount[level];
+				else if (level == 1) millis[level] = DEFAULT_RUN_START_MILLIS;
+				else if (level == 2) millis[level] = DEFAULT_LEVEL_MILLIS;
+				else millis[level] = millis[level - 1];
+			}
+			return millis;
+		}
+
+		double[] getDeathChances()
+		{
+			double[] chances = new double[RollingStats.LEVEL_SLOTS];
+			double prior = PRIOR_DEATH_CHANCE;
+			for (int level = 1; level <= 9; level++)
+			{
+				int attempts = completions[level] + deaths[level];
+				chances[level] = (deaths[level] + PRIOR_ATTEMPTS * prior) / (attempts + PRIOR_ATTEMPTS);
+				prior = chances[level];
+			}
+			return chances;
+		}
+	}
+
+	public static class Policy
+	{
+		// Depth at which every run banks
+		public final int bankAfter;
+		// Depth from which a run banks as soon as it holds an unclaimed unique
+		public final int bankOnUniqueFrom;
+		public final double valuePerHour;
+
+		Policy(int bankAfter, int bankOnUniqueFrom, double valuePerHour)
+		{
+			this.bankAfter = bankAfter;
+			this.bankOnUniqueFrom = bankOnUniqueFrom;
+			this.valuePerHour = valuePerHour;
+		}
+
+		public boolean banksOnUnique()
+		{
+			return bankOnUniqueFrom < bankAfter;
+		}
+
+		/**
+		 * @return true if banking later than the deepest depth evaluated would be better still
+		 */
+		public boolean keepsPushing()
+		{
+			return bankAfter == MAX_DEPTH;
+		}
+	}
+
+	public static class Result
+	{
+		public final Policy best;
+		// Value per hour when always banking after each depth, indexed by depth
+		public final double[] bankAfterRates;
+		// Measured or default time per level, indexed by level (9 = waves past 8)
+		public final double[] levelMillis;
+		public final int levels;
+		public final int deaths;
+
+		Result(Policy best, double[] bankAfterRates, double[] levelMillis, int levels, int deaths)
+		{
+			this.best = best;
+			this.bankAfterRates = bankAfterRates;
+			this.levelMillis = levelMillis;
+			this.levels = levels;
+			this.deaths = deaths;
+		}
+	}
+
+	private final Map<String, Measurements> measurements = new HashMap<>();
+	private Result cached;
+	private String cachedMode;
+	private int cachedTableVersion;
+	private int[] cachedItemIds;
+	private double[] cachedWeights;
+
+	/**
+	 * "Level 8 + 3 waves" for depth 11.
+	 */
+	public static String describeDepth(int depth)
+	{
+		if (depth <= 8) return "level " + depth;
+		int waves = depth - 8;
+		return "level 8 + " + waves + (waves == 1 ? " wave" : " waves");
+	}
+
+	/**
+	 * @param table drop rates of the profile being shown
+	 * @param weights value of each item in {@code itemIds}, all 1 to count uniques
+	 */
+	public synchronized Result solve(String mode, DelveHistory history, DelveRates.Table table, int[] itemIds, double[] weights)
+	{
+		Measurements measured = measurements.get(mode);
+		if (measured == null || measured.history != history)
+		{
+			measured = new Measurements(history);
+			measurements.put(mode, measured);
+			cached = null;
+		}
+		boolean changed = measured.update();
+		int tableVersion = table.getVersion();
+		if (!changed && cached != null && mode.equals(cachedMode) && tableVersion == cachedTableVersion
+				&& Arrays.equals(itemIds, cachedItemIds) && Arrays.equals(weights, cachedWeights))
+		{
+			return cached;
+		}
+
+		cached = solve(measured.getLevelMillis(), measured.getDeathChances(), table, itemIds, weights, measured.getLevels(), measured.getDeaths());
+		cachedMode = mode;
+		cachedTableVersion = tableVersion;
+		cachedItemIds = itemIds.clone();
+		cachedWeights = weights.clone();
+		return cached;
+	}
+
+	static Result solve(double[] levelMillis, double[] deathChances, DelveRates.Table table, int[] itemIds, double[] weights, int levels, int deaths)
+	{
+		double[] millis = new double[MAX_DEPTH + 1];
+		double[] deathChance = new double[MAX_DEPTH + 1];
+		double[] value = new double[MAX_DEPTH + 1];
+		double[] safeValue = new double[MAX_DEPTH + 1];
+		double[] uniqueChance = new double[MAX_DEPTH + 1];
+		for (int depth = 1; depth <= MAX_DEPTH; depth++)
+		{
+			int level = Math.min(depth, 9);
+			millis[depth] = levelMillis[level];
+			deathChance[depth] = deathChances[level];
+			DelveRates.DropRates rates = table.forLevel(level);
+			if (rates == null) continue;
+			for (int i = 0; i < itemIds.length; i++)
+			{
+				double rate = rates.getRate(itemIds[i]);
+				if (itemIds[i] == DelveRates.DOM)
+				{
+					safeValue[depth] += rate * weights[i];
+					continue;
+				}
+				value[depth] += rate * weights[i];
+				uniqueChance[depth] += rate;
+			}
+		}
+
+		// Policy i banks after depth (i / MAX_DEPTH + 1), or on a unique from depth (i % MAX_DEPTH + 1) when that is not deeper
+		int candidates = MAX_DEPTH * MAX_DEPTH;
+		double[] rates = new double[candidates];
+		IntStream.range(0, candidates).parallel().forEach(i -> {
+			int bankAfter = i / MAX_DEPTH + 1;
+			int bankOnUniqueFrom = i % MAX_DEPTH + 1;
+			rates[i] = bankOnUniqueFrom <= bankAfter ? evaluate(bankAfter, bankOnUniqueFrom, millis, deathChance, value, safeValue, uniqueChance) : -1;
+		});
+
+		int best = 0;
+		double[] bankAfterRates = new double[MAX_DEPTH + 1];
+		for (int i = 0; i < candidates; i++)
+		{
+			if (rates[i] > rates[best]) best = i;
+			int bankAfter = i / MAX_DEPTH + 1;
+			if (i % MAX_DEPTH + 1 == bankAfter) bankAfterRates[bankAfter] = rates[i];
+		}
+		Policy policy = new Policy(best / MAX_DEPTH + 1, best % MAX_DEPTH + 1, rates[best]);
+		return new Result(policy, bankAfterRates, levelMillis, levels, deaths);
+	}
+
+	/**
+	 * @param value expected claim screen value per completion, lost on death until banked
+	 * @param safeValue expected value per completion that is kept straight away
+	 * @return expected value banked per hour, by renewal: value banked per run over time per run
+	 */
+	static double evaluate(int bankAfter, int bankOnUniqueFrom, double[] millis, double[] deathChance,
+						   double[] value, double[] safeValue, double[] uniqueChance)
+	{
+		// Chance of being alive in this run without and with an unclaimed unique, and the expected unclaimed value
+		double without = 1;
+		double with = 0;
+		double unclaimed = 0;
+		double time = 0;
+		double banked = 0;
+		for (int depth = 1; depth <= bankAfter; depth++)
+		{
+			double alive = without + with;
+			if (alive <= 0) break;
+			time += alive * millis[depth];
+
+			double survive = 1 - deathChance[depth];
+			banked += survive * alive * safeValue[depth];
+			unclaimed = survive * (unclaimed + alive * value[depth]);
+			with = survive * (with + without * uniqueChance[depth]);
+			without = survive * without * (1 - uniqueChance[depth]);
+
+			if (depth >= bankOnUniqueFrom || depth == bankAfter)
+			{
+				banked += unclaimed;
+				with = 0;
+				unclaimed = 0;
+			}
+		}
+		return time > 0 ? banked / time * 3_600_000 : 0;
+	}
+}
@@ -0,0 +1,52 @@
+package com.speaax;
+
+/**
+ * Remembers the fingerprints of the last {@value #CAPACITY} drops in a fixed ring so a drop seen
+ * again, e.g. when the claim screen is reopened or redrawn, is only counted once. Lookups scan
+ * the ring, which is constant time at this size and allocates nothing.
+ */
+public class DelveDropDeduper
+{
+	private static final int CAPACITY = 64;
+
+	private final long[] ring = new long[CAPACITY];
+	private int next;
+
+	/**
+	 * @param run delve runs started so far, so the same reward in a later run is a new drop
+	 * @param completion levels completed so far
+	 * @param slot claim screen slot, or -1 for drops announced in chat
+	 */
+	public static long fingerprint(int run, int completion, int slot, int itemId)
+	{
+		long h = mix(run);
+		h = mix(h ^ completion);
+		h = mix(h ^ slot);
+		h = mix(h ^ itemId);
+		// 0 is kept free to mark empty slots
+		return h == 0 ? 1 : h;
+	}
+
+	// SplitMix64 step
+	private static long mix(long h)
+	{
+		h += 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * @return true the first time a fingerprint is seen, false for a duplicate
+	 */
+	public boolean accept(long fingerprint)
+	{
+		for (long seen : ring)
+		{
+			if (seen == fingerprint) return false;
+		}
+		ring[next] = fingerprint;
+		next = (next + 1) % CAPACITY;
+		return true;
+	}
+}
@@ -0,0 +1,271 @@
+package com.speaax;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Turns the raw inputs the plugin reads from the client (chat text, scoreboard and loot
+ * widget contents, collection log items) into delve events. It holds no client state,
+ * so the live event handlers and {@link DelveTrace} replays run exactly the same code.
+ *
+ * <p>Like the other core classes it imports nothing from the client: chat types arrive as a
+ * {@link ChatType} and tags are stripped here.</p>
+ *
+ * <p>Drops are fingerprinted by run, completion, claim screen slot and item, so reopening the
+ * claim screen or a repeated pet message doesn't count the same drop twice. A run starts with
+ * each level 1 completion, and rewards stay on the claim screen until the run ends.</p>
+ */
+public class DelveEventParser
+{
+	/**
+	 * The chat message types the parser reads, mapped from the client's by the plugin.
+	 */
+	public enum ChatType
+	{
+		GAMEMESSAGE,
+		SPAM
+	}
+
+	public interface Listener
+	{
+		/**
+		 * @param level completed level, 9 for waves past 8
+		 */
+		void onLevelComplete(String mode, int level);
+
+		void onUniqueDrop(String mode, int itemId);
+
+		void onDeath(String mode);
+
+		void onScoreboard(String mode, Map<Integer, Integer> levelKills, int wavesPast8);
+
+		void onCollectionLog(String mode, Map<Integer, Integer> obtained);
+	}
+
+	private static final String[] PET_MESSAGES = {
+		"You have a funny feeling like you're being followed.",
+		"You feel something weird sneaking into your backpack.",
+		"You have a funny feeling like you would have been followed..."
+	};
+	private static final String DEATH_MESSAGE = "Oh dear, you are dead!";
+
+	private final Listener listener;
+	private final IntFunction<String> itemNames;
+	private final Supplier<String> gameMode;
+	private final DelveMetrics metrics;
+	private final DelveDropDeduper deduper = new DelveDropDeduper();
+	private DelveTrace.Recorder recorder;
+	private int runs;
+	private int completions;
+
+	/**
+	 * @param itemNames resolves an item ID to its name, null for unknown items
+	 * @param gameMode current game mode key, read once per event
+	 */
+	public DelveEventParser(Listener listener, IntFunction<String> itemNames, Supplier<String> gameMode, DelveMetrics metrics)
+	{
+		this.listener = listener;
+		this.itemNames = itemNames;
+		this.gameMode = gameMode;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Every input passed to this parser is written to the recorder first, null to stop recording.
+	 */
+	public void setRecorder(DelveTrace.Recorder recorder)
+	{
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @param type null for chat types the parser ignores
+	 */
+	public void onChatMessage(ChatType type, String rawMessage, BooleanSupplier inDelveRegion)
+	{
+		if (type == null) return;
+		String mode = gameMode.get();
+		String message = removeTags(rawMessage);
+		boolean inRegion = false;
+
+		if (message.contains("Delve level:") && message.contains("duration:"))
+		{
+			handleDelveCompletion(mode, message);
+		}
+
+		if (type == ChatType.GAMEMESSAGE && isPetMessage(message))
+		{
+			inRegion = inDelveRegion.getAsBoolean();
+			if (inRegion)
+			{
+				// The pet rolls once per completion
+				recordDrop(mode, -1, DelveRates.DOM);
+			}
+		}
+		else if (type == ChatType.GAMEMESSAGE && message.equals(DEATH_MESSAGE))
+		{
+			inRegion = inDelveRegion.getAsBoolean();
+			if (inRegion) listener.onDeath(mode);
+		}
+
+		if (recorder != null) recorder.chat(mode, type, rawMessage, inRegion);
+	}
+
+	/**
+	 * @param levelTexts text of the nine scoreboard rows (levels 1-8, then 8+), null where the widget is missing
+	 */
+	public void onScoreboard(String[] levelTexts)
+	{
+		String mode = gameMode.get();
+		if (recorder != null) recorder.scoreboard(mode, levelTexts);
+
+		Map<Integer, Integer> levelKills = new HashMap<>();
+		int wavesPast8 = 0;
+		for (int i = 0; i < 9 && i < levelTexts.length; i++)
+		{
+			String text = levelTexts[i];
+			if (text == null || text.isEmpty()) continue;
+			try
+			{
+				String numberText = text.trim().replaceAll("[^0-9]", "");
+				if (!numberText.isEmpty())
+				{
+					int kills = Integer.parseInt(numberText);
+					if (i == 8) wavesPast8 = kills;
+					else levelKills.put(i + 1, kills);
+				}
+			}
+			catch (NumberFormatException ignored) {}
+		}
+		listener.onScoreboard(mode, levelKills, wavesPast8);
+	}
+
+	/**
+	 * @param itemIds item IDs of the claim screen's reward slots, -1 for empty slots
+	 */
+	public void onLootInterface(int[] itemIds)
+	{
+		String mode = gameMode.get();
+		if (recorder != null) recorder.loot(mode, itemIds);
+
+		for (int slot = 0; slot < itemIds.length; slot++)
+		{
+			if (itemIds[slot] <= -1) continue;
+			Map.Entry<String, Integer> unique = findUnique(itemIds[slot]);
+			// Dom is counted from its chat message instead
+			if (unique != null && !unique.getKey().equalsIgnoreCase("Dom"))
+			{
+				recordDrop(mode, slot, unique.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @param opacities widget opacity per item, where anything above zero means not yet obtained
+	 */
+	public void onCollectionLog(int[] itemIds, int[] quantities, int[] opacities)
+	{
+		String mode = gameMode.get();
+		if (recorder != null) recorder.collectionLog(mode, itemIds, quantities, opacities);
+
+		Map<Integer, Integer> foundDrops = new HashMap<>();
+		boolean isDelvePage = false;
+		for (int i = 0; i < itemIds.length; i++)
+		{
+			Map.Entry<String, Integer> unique = findUnique(itemIds[i]);
+			if (unique == null) continue;
+			isDelvePage = true;
+			foundDrops.put(unique.getValue(), opacities[i] > 0 ? 0 : quantities[i]);
+		}
+		if (isDelvePage)
+		{
+			listener.onCollectionLog(mode, foundDrops);
+		}
+	}
+
+	private void recordDrop(String mode, int slot, int itemId)
+	{
+		// Loot stays on the claim screen for the whole run, a pet message belongs to one completion
+		int completion = slot < 0 ? completions : 0;
+		if (!deduper.accept(DelveDropDeduper.fingerprint(runs, completion, slot, itemId)))
+		{
+			metrics.increment(DelveMetrics.Counter.DROPS_SUPPRESSED);
+			return;
+		}
+		listener.onUniqueDrop(mode, itemId);
+	}
+
+	private void handleDelveCompletion(String mode, String message)
+	{
+		String[] parts = message.split(" ");
+		for (int i = 0; i < parts.length; i++)
+		{
+			if (parts[i].equals("level:") && i + 1 < parts.length)
+			{
+				String levelText = parts[i + 1];
+				if (levelText.equals("8+"))
+				{
+					completions++;
+					listener.onLevelComplete(mode, 9);
+					break;
+				}
+				else
+				{
+					try
+					{
+						int level = Integer.parseInt(levelText);
+						if (level >= 1 && level <= 8)
+						{
+							completions++;
+							if (level == 1) runs++;
+							listener.onLevelComplete(mode, level);
+							break;
+						}
+					}
+					catch (NumberFormatException ignored) {}
+				}
+			}
+		}
+	}
+
+	private Map.Entry<String, Integer> findUnique(int itemId)
+	{
+		String name = itemNames.apply(itemId);
+		if (name == null) return null;
+		for (Map.Entry<String, Integer> entry : DelveRates.getUniqueDropsMap().entrySet())
+		{
+			if (entry.getKey().equalsIgnoreCase(name)) return entry;
+		}
+		return null;
+	}
+
+	// Drops every <...> tag like the client's Text.removeTags, leaving an unclosed '<' as it is
+	static String removeTags(String message)
+	{
+		int open = message.indexOf('<');
+		if (open < 0) return message;
+		StringBuilder text = new StringBuilder(message.length());
+		int from = 0;
+		while (open >= 0)
+		{
+			int close = message.indexOf('>', open);
+			if (close < 0) break;
+			text.append(message, from, open);
+			from = close + 1;
+			open = message.indexOf('<', from);
+		}
+		return text.append(message, from, message.length()).toString();
+	}
+
+	private static boolean isPetMessage(String message)
+	{
+		for (String petMessage : PET_MESSAGES)
+		{
+			if (message.equals(petMessage)) return true;
+		}
+		return false;
+	}
+}
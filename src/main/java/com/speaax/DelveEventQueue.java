@@ -0,0 +1,173 @@
+package com.speaax;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounded ring of preallocated events between the event handlers and a single consumer. Publishing
+ * only copies a few fields into the next slot and, if the consumer is idle, schedules it. The
+ * consumer then drains everything published so far as one batch, so a burst of events costs one
+ * save and one refresh.
+ *
+ * <p>When the ring is full the publisher doubles it rather than wait for the consumer or drop an
+ * event, so the client thread never blocks here. The unconsumed slots keep their logical positions
+ * in the larger ring, and a consumer still reading a batch from the old ring sees the same event
+ * objects. Such growths, events and batches are counted in {@link DelveMetrics}.</p>
+ */
+@Slf4j
+public class DelveEventQueue
+{
+	public enum Type
+	{
+		LEVEL,
+		DROP,
+		DEATH,
+		SCOREBOARD,
+		COLLECTION_LOG
+	}
+
+	/**
+	 * A slot in the ring. Slots are reused, so a handler must not keep a reference past {@link Handler#apply}.
+	 */
+	@Getter
+	public static class Event
+	{
+		private Type type;
+		private String mode;
+		// Level for LEVEL, item ID for DROP, waves past 8 for SCOREBOARD
+		private int value;
+		private long time;
+		// Level kills for SCOREBOARD, obtained uniques for COLLECTION_LOG
+		private Map<Integer, Integer> counts;
+	}
+
+	public interface Handler
+	{
+		void apply(Event event);
+
+		/**
+		 * Called once after each batch, on the consumer thread.
+		 */
+		void endBatch(int size);
+	}
+
+	private final Executor executor;
+	private final Handler handler;
+	private final DelveMetrics metrics;
+
+	// Guarded by this
+	private Event[] ring;
+	private long head;
+	private long tail;
+	private boolean scheduled;
+
+	public DelveEventQueue(int capacity, Executor executor, Handler handler, DelveMetrics metrics)
+	{
+		this.ring = new Event[capacity];
+		for (int i = 0; i < capacity; i++)
+		{
+			ring[i] = new Event();
+		}
+		this.executor = executor;
+		this.handler = handler;
+		this.metrics = metrics;
+	}
+
+	public void publish(Type type, String mode, int value, long time, Map<Integer, Integer> counts)
+	{
+		boolean schedule;
+		synchronized (this)
+		{
+			if (tail - head == ring.length)
+			{
+				grow();
+				metrics.increment(DelveMetrics.Counter.QUEUE_GROWTHS);
+			}
+
+			Event event = ring[(int) (tail % ring.length)];
+			event.type = type;
+			event.mode = mode;
+			event.value = value;
+			event.time = time;
+			event.counts = counts;
+			tail++;
+
+			schedule = !scheduled;
+			scheduled = true;
+		}
+		metrics.increment(DelveMetrics.Counter.EVENTS_QUEUED);
+		if (schedule) executor.execute(this::drain);
+	}
+
+	// Called holding this, on a full ring
+	private void grow()
+	{
+		Event[] grown = new Event[ring.length * 2];
+		for (long i = head; i < tail; i++)
+		{
+			grown[(int) (i % grown.length)] = ring[(int) (i % ring.length)];
+		}
+		for (int i = 0; i < grown.length; i++)
+		{
+			if (grown[i] == null) grown[i] = new Event();
+		}
+		ring = grown;
+	}
+
+	private void drain()
+	{
+		while (true)
+		{
+			Event[] events;
+			long from;
+			long to;
+			synchronized (this)
+			{
+				if (head == tail)
+				{
+					scheduled = false;
+					return;
+				}
+				events = ring;
+				from = head;
+				to = tail;
+			}
+
+			// Producers never write to the events in [from, to) until head moves past it
+			long start = System.nanoTime();
+			try
+			{
+				for (long i = from; i < to; i++)
+				{
+					Event event = events[(int) (i % events.length)];
+					try
+					{
+						handler.apply(event);
+					}
+					catch (RuntimeException e)
+					{
+						log.warn("Error applying delve {} event", event.type, e);
+					}
+					event.counts = null;
+				}
+				handler.endBatch((int) (to - from));
+			}
+			catch (RuntimeException e)
+			{
+				log.warn("Error finishing delve event batch", e);
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					head = to;
+				}
+				metrics.increment(DelveMetrics.Counter.BATCHES_APPLIED);
+				metrics.record(DelveMetrics.Probe.APPLY_BATCH, start);
+			}
+		}
+	}
+}
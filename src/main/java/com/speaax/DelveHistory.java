@@ -0,0 +1,147 @@
+package com.speaax;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Append-only log of level completions, deaths and unique drops for one game mode.
+ * Events are held in primitive arrays and mirrored to a small binary file
+ * (8 byte timestamp + 1 byte code per event) so the history survives restarts.
+ */
+@Slf4j
+public class DelveHistory
+{
+	// Codes 1-9 are level completions (9 = waves past 8), drops start at DROP_CODE_BASE
+	static final int DEATH_CODE = 10;
+	static final int DROP_CODE_BASE = 16;
+	private static final int RECORD_SIZE = 9;
+
+	public interface EventVisitor
+	{
+		void accept(long time, int code);
+	}
+
+	private final File file;
+	private long[] times = new long[1024];
+	private byte[] codes = new byte[1024];
+	private int size;
+
+	public DelveHistory(File file)
+	{
+		this.file = file;
+	}
+
+	public static DelveHistory load(File file)
+	{
+		DelveHistory history = new DelveHistory(file);
+		if (file == null || !file.isFile()) return history;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			// A crash mid-write can leave a partial record at the end, which is dropped
+			long records = file.length() / RECORD_SIZE;
+			for (long i = 0; i < records; i++)
+			{
+				long time = in.readLong();
+				int code = in.readByte();
+				history.append(time, code);
+			}
+		}
+		catch (EOFException ignored) {}
+		catch (IOException e)
+		{
+			log.debug("Error loading delve history", e);
+		}
+		return history;
+	}
+
+	public synchronized void recordLevel(int level, long now)
+	{
+		record(now, level);
+	}
+
+	public synchronized void recordDrop(int itemId, long now)
+	{
+		int item = RollingStats.itemIndex(itemId);
+		if (item < 0) return;
+		record(now, DROP_CODE_BASE + item);
+	}
+
+	public synchronized void recordDeath(long now)
+	{
+		record(now, DEATH_CODE);
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return index of the first event at or after {@code time}, found by binary search since events are appended in time order
+	 */
+	public synchronized int indexAtOrAfter(long time)
+	{
+		int low = 0;
+		int high = size;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Visits every event from {@code from} onwards and returns the history size at the
+	 * time of the call, which callers keep as the starting point for the next read.
+	 */
+	public synchronized int read(int from, EventVisitor visitor)
+	{
+		for (int i = from; i < size; i++)
+		{
+			visitor.accept(times[i], codes[i]);
+		}
+		return size;
+	}
+
+	private void record(long time, int code)
+	{
+		append(time, code);
+		if (file == null) return;
+
+		File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) return;
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true)))
+		{
+			out.writeLong(time);
+			out.writeByte(code);
+		}
+		catch (IOException e)
+		{
+			log.debug("Error writing delve history", e);
+		}
+	}
+
+	private void append(long time, int code)
+	{
+		if (size == times.length)
+		{
+			times = Arrays.copyOf(times, size * 2);
+			codes = Arrays.copyOf(codes, size * 2);
+		}
+		times[size] = time;
+		codes[size] = (byte) code;
+		size++;
+	}
+}
@@ -0,0 +1,127 @@
+package com.speaax;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+/**
+ * Loader for {@link DelveCalculatorData} stored as JSON by reflective Gson, before
+ * {@link DelveSnapshotCodec}, so existing data still loads.
+ *
+ * <p>Kills and uniques are objects keyed by the level or item ID as a string, and there is no
+ * version field. JSON carrying a {@code version} field was written by a newer plugin and is
+ * rejected rather than partly read. Data is only ever written as a snapshot.</p>
+ */
+@Slf4j
+public final class DelveLegacyJson
+{
+	static final int LEGACY_VERSION = 1;
+
+	private DelveLegacyJson()
+	{
+	}
+
+	/**
+	 * @return the stored data, or null if the JSON is {@code null}
+	 * @throws JsonParseException if the JSON is malformed or was written by a newer plugin
+	 */
+	public static DelveCalculatorData read(String json)
+	{
+		try (JsonReader in = new JsonReader(new StringReader(json)))
+		{
+			return read(in);
+		}
+		catch (IOException | IllegalStateException | NumberFormatException e)
+		{
+			throw new JsonParseException(e);
+		}
+	}
+
+	private static DelveCalculatorData read(JsonReader in) throws IOException
+	{
+		if (in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+
+		DelveCalculatorData data = new DelveCalculatorData();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "version":
+					int version = in.nextInt();
+					throw new JsonParseException("Stored data has schema version " + version + ", newer than " + LEGACY_VERSION);
+				case "profiles":
+					in.beginObject();
+					while (in.hasNext())
+					{
+						String key = in.nextName();
+						data.getProfiles().put(key, readProfile(in));
+					}
+					in.endObject();
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		log.debug("Read {} profiles from legacy JSON", data.getProfiles().size());
+		return data;
+	}
+
+	private static DelveCalculatorData.DelveProfile readProfile(JsonReader in) throws IOException
+	{
+		DelveCalculatorData.DelveProfile profile = new DelveCalculatorData.DelveProfile();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "name":
+					profile.setName(in.peek() == JsonToken.NULL ? nextNull(in) : in.nextString());
+					break;
+				case "levelKills":
+					readIntMap(in, profile.getLevelKills());
+					break;
+				case "obtainedUniques":
+					readIntMap(in, profile.getObtainedUniques());
+					break;
+				case "wavesPast8":
+					profile.setWavesPast8(in.nextInt());
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return profile;
+	}
+
+	private static void readIntMap(JsonReader in, Map<Integer, Integer> target) throws IOException
+	{
+		in.beginObject();
+		while (in.hasNext())
+		{
+			int key = Integer.parseInt(in.nextName());
+			target.put(key, in.nextInt());
+		}
+		in.endObject();
+	}
+
+	private static String nextNull(JsonReader in) throws IOException
+	{
+		in.nextNull();
+		return null;
+	}
+}
@@ -0,0 +1,191 @@
+package com.speaax;
+
+/**
+ * Joint luck over every unique, weighting each by how rare it is.
+ *
+ * <p>Each unique's received drops k are compared with its expected drops e through the Poisson
+ * mid-p value u = P(X &lt; k) + P(X = k) / 2, turned into a normal score z = inverse normal CDF
+ * of u. Counts are discrete, so a plain deviance residual misplaces small counts: at e = 0.1 about
+ * 90% of players have no drop, and mid-p puts them at the 45th percentile where the residual put
+ * them at the 33rd. A rare unique has a small e, so one drop of it moves its score much further
+ * than a drop of a common one, unlike the "Any Item" row which adds every drop the same. The
+ * scores of the uniques shown are combined with Stouffer's method, Z = sum(z) / sqrt(m), and the
+ * percentile is the normal CDF of Z: roughly the share of players with the same completions
+ * expected to have been less lucky.</p>
+ *
+ * <p>Expected drops, received drops and residuals are kept in transient arrays on the profile,
+ * built under the profile's rate table. Adding kills or a drop updates them in O(uniques), and
+ * reading the score or the totals is O(uniques) over the stored arrays. Code that replaces counts
+ * in bulk calls {@link DelveCalculatorData.DelveProfile#invalidateLuck()}, and the next read
+ * rebuilds the arrays once. All access holds the profile's lock, since events and reads are on
+ * different threads.</p>
+ */
+public final class DelveLuckScore
+{
+	private DelveLuckScore() {}
+
+	static void onKills(DelveCalculatorData.DelveProfile profile, int level, int count)
+	{
+		synchronized (profile)
+		{
+			DelveRates.Table table = profile.getLuckTable();
+			if (table == null) return;
+			DelveRates.DropRates rates = table.forLevel(level);
+			if (rates == null) return;
+			double[] expected = profile.getLuckExpected();
+			int[] drops = profile.getLuckDrops();
+			double[] residuals = profile.getLuckResiduals();
+			for (int item = 0; item < RollingStats.ITEM_IDS.length; item++)
+			{
+				double rate = rates.getRate(RollingStats.ITEM_IDS[item]);
+				if (rate == 0) continue;
+				expected[item] += rate * count;
+				residuals[item] = residual(drops[item], expected[item]);
+			}
+		}
+	}
+
+	static void onDrop(DelveCalculatorData.DelveProfile profile, int itemId)
+	{
+		synchronized (profile)
+		{
+			if (profile.getLuckTable() == null) return;
+			int item = RollingStats.itemIndex(itemId);
+			if (item < 0) return;
+			int drops = ++profile.getLuckDrops()[item];
+			profile.getLuckResiduals()[item] = residual(drops, profile.getLuckExpected()[item]);
+		}
+	}
+
+	/**
+	 * @param itemMask bit per {@link RollingStats#ITEM_IDS} index of the uniques to combine
+	 * @return Stouffer's Z over the uniques that can have dropped, 0 when none can
+	 */
+	public static double getScore(DelveCalculatorData.DelveProfile profile, int itemMask)
+	{
+		synchronized (profile)
+		{
+			prepare(profile);
+			double[] expected = profile.getLuckExpected();
+			double[] residuals = profile.getLuckResiduals();
+			double sum = 0;
+			int count = 0;
+			for (int item = 0; item < RollingStats.ITEM_IDS.length; item++)
+			{
+				if ((itemMask & (1 << item)) == 0 || expected[item] <= 0) continue;
+				sum += residuals[item];
+				count++;
+			}
+			return count == 0 ? 0 : sum / Math.sqrt(count);
+		}
+	}
+
+	/**
+	 * Builds the arrays under the profile's current rate table if they're missing or stale. The
+	 * add methods only keep built arrays up to date, and copies of the profile take them along.
+	 */
+	static void prepare(DelveCalculatorData.DelveProfile profile)
+	{
+		synchronized (profile)
+		{
+			DelveRates.Table table = DelveRates.getTable(profile);
+			if (profile.getLuckTable() != table) rebuild(profile, table);
+		}
+	}
+
+	/**
+	 * Copies the expected and received drops of every unique, by {@link RollingStats#ITEM_IDS}
+	 * index, under the profile's rate table. Reads the kept arrays, so it doesn't allocate unless
+	 * they need rebuilding.
+	 */
+	public static void getTotals(DelveCalculatorData.DelveProfile profile, double[] expected, int[] received)
+	{
+		synchronized (profile)
+		{
+			prepare(profile);
+			System.arraycopy(profile.getLuckExpected(), 0, expected, 0, expected.length);
+			System.arraycopy(profile.getLuckDrops(), 0, received, 0, received.length);
+		}
+	}
+
+	/**
+	 * @return percentile of a {@link #getScore} result, 50 at exactly the expected drops
+	 */
+	public static double toPercentile(double score)
+	{
+		return 100 * normalCdf(score);
+	}
+
+	private static void rebuild(DelveCalculatorData.DelveProfile profile, DelveRates.Table table)
+	{
+		double[] expected = new double[RollingStats.ITEM_IDS.length];
+		int[] drops = new int[RollingStats.ITEM_IDS.length];
+		double[] residuals = new double[RollingStats.ITEM_IDS.length];
+		for (int item = 0; item < expected.length; item++)
+		{
+			expected[item] = DelveCalculator.getExpected(profile, table, RollingStats.ITEM_IDS[item]);
+			drops[item] = profile.getObtainedUniques().getOrDefault(RollingStats.ITEM_IDS[item], 0);
+			residuals[item] = residual(drops[item], expected[item]);
+		}
+		profile.setLuckExpected(expected);
+		profile.setLuckDrops(drops);
+		profile.setLuckResiduals(residuals);
+		profile.setLuckTable(table);
+	}
+
+	/**
+	 * @return normal score of the Poisson mid-p value of {@code drops} against a mean of {@code expected}
+	 */
+	static double residual(int drops, double expected)
+	{
+		if (expected <= 0) return 0;
+		double half = 0.5 * Math.exp(drops * Math.log(expected) - expected - DelveRateEstimator.logGamma(drops + 1));
+		// The smaller tail is computed directly, so counts far from the mean keep their precision.
+		// P(X < k) = Q(k, e) and P(X > k) = P(k + 1, e) through the regularized gamma functions.
+		if (drops <= expected)
+		{
+			double below = drops == 0 ? 0 : DelveRateEstimator.regularizedGammaQ(drops, expected);
+			return inverseNormalCdf(below + half);
+		}
+		return -inverseNormalCdf(DelveRateEstimator.regularizedGammaP(drops + 1, expected) + half);
+	}
+
+	// Through erf(x) = P(1/2, x^2), the regularized gamma function the rate estimator already has
+	static double normalCdf(double z)
+	{
+		double half = 0.5 * DelveRateEstimator.regularizedGammaP(0.5, z * z / 2);
+		return z >= 0 ? 0.5 + half : 0.5 - half;
+	}
+
+	// Acklam's rational approximation, relative error below 1.2e-9
+	private static final double[] ACKLAM_A = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+	private static final double[] ACKLAM_B = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01, -1.328068155288572e+01};
+	private static final double[] ACKLAM_C = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+	private static final double[] ACKLAM_D = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+	private static final double ACKLAM_LOW = 0.02425;
+
+	/**
+	 * @return z with a normal CDF of {@code p}, for p clamped into (0, 1)
+	 */
+	static double inverseNormalCdf(double p)
+	{
+		p = Math.min(Math.max(p, Double.MIN_NORMAL), 1 - 1e-16);
+		if (p < ACKLAM_LOW) return lowerTail(Math.sqrt(-2 * Math.log(p)));
+		if (p > 1 - ACKLAM_LOW) return -lowerTail(Math.sqrt(-2 * Math.log(1 - p)));
+
+		double q = p - 0.5;
+		double r = q * q;
+		double[] a = ACKLAM_A;
+		double[] b = ACKLAM_B;
+		return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+				/ (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+	}
+
+	private static double lowerTail(double q)
+	{
+		double[] c = ACKLAM_C;
+		double[] d = ACKLAM_D;
+		return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+				/ ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+	}
+}
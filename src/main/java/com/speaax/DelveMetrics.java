@@ -0,0 +1,135 @@
+package com.speaax;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the plugin's hot paths. Latencies go into
+ * fixed power-of-two nanosecond buckets held in one {@link AtomicLongArray}, so
+ * recording is lock-free and allocates nothing. Percentiles are reported as the
+ * upper bound of the bucket they fall in.
+ */
+public class DelveMetrics
+{
+	public enum Probe
+	{
+		CHAT_MESSAGE("onChatMessage"),
+		SCAN_LOOT("scanLootInterface"),
+		SYNC_COLLECTION_LOG("syncCollectionLog"),
+		UPDATE_KILL_COUNTS("updateKillCounts"),
+		SAVE_DATA("saveData"),
+		LOAD_DATA("loadData"),
+		UPDATE_ALL_UI("updateAllUI"),
+		APPLY_BATCH("applyBatch");
+
+		private final String label;
+
+		Probe(String label)
+		{
+			this.label = label;
+		}
+	}
+
+	public enum Counter
+	{
+		BYTES_PERSISTED("Bytes persisted"),
+		REFRESH_REQUESTED("Refreshes requested"),
+		REFRESH_PERFORMED("Refreshes performed"),
+		DROPS_SUPPRESSED("Duplicate drops suppressed"),
+		EVENTS_QUEUED("Events queued"),
+		BATCHES_APPLIED("Event batches applied"),
+		QUEUE_GROWTHS("Queue grown when full");
+
+		private final String label;
+
+		Counter(String label)
+		{
+			this.label = label;
+		}
+	}
+
+	// Bucket i holds latencies below 2^i ns; the last bucket catches everything above ~34s
+	private static final int BUCKETS = 36;
+
+	private final AtomicLongArray histograms = new AtomicLongArray(Probe.values().length * BUCKETS);
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+	/**
+	 * Records the time elapsed since {@code startNanos}, taken from {@link System#nanoTime()}.
+	 */
+	public void record(Probe probe, long startNanos)
+	{
+		long elapsed = Math.max(0, System.nanoTime() - startNanos);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(elapsed));
+		histograms.incrementAndGet(probe.ordinal() * BUCKETS + bucket);
+	}
+
+	public void increment(Counter counter)
+	{
+		counters.incrementAndGet(counter.ordinal());
+	}
+
+	public void add(Counter counter, long amount)
+	{
+		counters.addAndGet(counter.ordinal(), amount);
+	}
+
+	public long get(Counter counter)
+	{
+		return counters.get(counter.ordinal());
+	}
+
+	public long count(Probe probe)
+	{
+		long total = 0;
+		int base = probe.ordinal() * BUCKETS;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			total += histograms.get(base + i);
+		}
+		return total;
+	}
+
+	/**
+	 * @return upper bound in nanoseconds of the bucket holding the given percentile, or 0 if nothing was recorded
+	 */
+	public long percentile(Probe probe, double percentile)
+	{
+		long total = count(probe);
+		if (total == 0) return 0;
+
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		int base = probe.ordinal() * BUCKETS;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += histograms.get(base + i);
+			if (seen >= rank) return 1L << i;
+		}
+		return 1L << (BUCKETS - 1);
+	}
+
+	public String summary()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Probe probe : Probe.values())
+		{
+			sb.append(probe.label)
+					.append(": n=").append(count(probe))
+					.append(" p50<").append(formatNanos(percentile(probe, 50)))
+					.append(" p99<").append(formatNanos(percentile(probe, 99)))
+					.append('\n');
+		}
+		for (Counter counter : Counter.values())
+		{
+			sb.append(counter.label).append(": ").append(get(counter)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String formatNanos(long nanos)
+	{
+		if (nanos < 1_000) return nanos + "ns";
+		if (nanos < 1_000_000) return nanos / 1_000 + "us";
+		return nanos / 1_000_000 + "ms";
+	}
+}
@@ -0,0 +1,179 @@
+package com.speaax;
+
+import net.runelite.client.plugins.Plugin;
+import net.runelite.client.ui.overlay.Overlay;
+import net.runelite.client.ui.overlay.OverlayLayer;
+import net.runelite.client.ui.overlay.OverlayPosition;
+import net.runelite.client.ui.overlay.components.ComponentConstants;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.util.Map;
+
+/**
+ * In-game box with the expected drops and luck of the uniques shown in the panel, while in a
+ * delve region.
+ *
+ * <p>The overlay renders every frame, so {@link #render} only draws. Text and colors are
+ * formatted into a {@link Snapshot} by {@link #update} whenever the panel refreshes, and the
+ * snapshot is swapped in whole. Text widths are measured on the first frame that draws a
+ * snapshot, or after the font changes, and reused after that.</p>
+ */
+public class DelveOverlay extends Overlay
+{
+	private static final String[] SHORT_NAMES = {"Cloth", "Eye", "Treads", "Dom"};
+	private static final int PADDING = 4;
+	private static final int COLUMN_GAP = 8;
+	private static final Color GOOD_LUCK = new Color(0, 200, 0);
+
+	/**
+	 * Pre-formatted rows, written once on the EDT and only read by the render thread afterwards.
+	 */
+	private static class Snapshot
+	{
+		final String title;
+		// Rows by column: name, expected, luck
+		final String[][] text;
+		final Color[][] colors;
+
+		// Measured by the render thread
+		Font measuredFont;
+		int[][] textWidths;
+		int[] columnWidths;
+		int width;
+		int height;
+		int lineHeight;
+		int ascent;
+
+		Snapshot(String title, int rows)
+		{
+			this.title = title;
+			this.text = new String[rows][];
+			this.colors = new Color[rows][];
+		}
+	}
+
+	private final Dimension size = new Dimension();
+	private volatile Snapshot snapshot;
+	private volatile boolean inRegion;
+
+	DelveOverlay(Plugin plugin)
+	{
+		super(plugin);
+		setPosition(OverlayPosition.TOP_LEFT);
+		setLayer(OverlayLayer.ABOVE_WIDGETS);
+		setMovable(true);
+	}
+
+	public void setInRegion(boolean inRegion)
+	{
+		this.inRegion = inRegion;
+	}
+
+	/**
+	 * Formats the uniques that aren't hidden, in the panel's order.
+	 */
+	public void update(String title, DelveCalculatorData.DelveProfile profile,
+					   Map<String, DelveCalculatorConfig.RewardDisplayMode> displayModes)
+	{
+		Map<String, Integer> uniques = DelveRates.getUniqueDropsMap();
+		int rows = 0;
+		for (String name : uniques.keySet())
+		{
+			if (displayModes.getOrDefault(name, DelveCalculatorConfig.RewardDisplayMode.SHOW) != DelveCalculatorConfig.RewardDisplayMode.HIDE) rows++;
+		}
+
+		Snapshot next = new Snapshot(title, rows);
+		int row = 0;
+		int index = 0;
+		for (Map.Entry<String, Integer> entry : uniques.entrySet())
+		{
+			String shortName = SHORT_NAMES[index++];
+			DelveCalculatorConfig.RewardDisplayMode displayMode = displayModes.getOrDefault(entry.getKey(), DelveCalculatorConfig.RewardDisplayMode.SHOW);
+			if (displayMode == DelveCalculatorConfig.RewardDisplayMode.HIDE) continue;
+
+			double expected = DelveCalculator.getExpected(profile, entry.getValue());
+			double luck = profile.getObtainedUniques().getOrDefault(entry.getValue(), 0) - expected;
+			boolean grey = displayMode == DelveCalculatorConfig.RewardDisplayMode.GREY;
+			next.text[row] = new String[]{shortName, String.format("%.2f", expected), String.format("%+.2f", luck)};
+			next.colors[row] = new Color[]{grey ? Color.GRAY : Color.WHITE, grey ? Color.GRAY : Color.WHITE, grey ? Color.GRAY : luckColor(luck)};
+			row++;
+		}
+		snapshot = next;
+	}
+
+	/**
+	 * @return text of a shown unique's column (name, expected, luck), null before the first update
+	 */
+	String getText(int row, int column)
+	{
+		Snapshot current = snapshot;
+		return current == null || row >= current.text.length ? null : current.text[row][column];
+	}
+
+	// Brighter versions of the panel's luck colors, to read on the dark overlay background
+	private static Color luckColor(double luck)
+	{
+		if (luck > 0) return GOOD_LUCK;
+		if (luck == 0) return Color.WHITE;
+		float ratio = (float) Math.min(-luck, 1.0);
+		return new Color(255, (int) (255 * (1.0 - ratio)), 0);
+	}
+
+	@Override
+	public Dimension render(Graphics2D graphics)
+	{
+		Snapshot current = snapshot;
+		if (!inRegion || current == null) return null;
+
+		Font font = graphics.getFont();
+		if (current.measuredFont != font) measure(current, graphics.getFontMetrics(), font);
+
+		graphics.setColor(ComponentConstants.STANDARD_BACKGROUND_COLOR);
+		graphics.fillRect(0, 0, current.width, current.height);
+
+		int y = PADDING + current.ascent;
+		graphics.setColor(Color.ORANGE);
+		graphics.drawString(current.title, PADDING, y);
+		for (int row = 0; row < current.text.length; row++)
+		{
+			y += current.lineHeight;
+			int x = PADDING;
+			for (int column = 0; column < 3; column++)
+			{
+				graphics.setColor(current.colors[row][column]);
+				// Numbers are right aligned in their column
+				int offset = column == 0 ? 0 : current.columnWidths[column] - current.textWidths[row][column];
+				graphics.drawString(current.text[row][column], x + offset, y);
+				x += current.columnWidths[column] + COLUMN_GAP;
+			}
+		}
+
+		size.setSize(current.width, current.height);
+		return size;
+	}
+
+	private static void measure(Snapshot snapshot, FontMetrics metrics, Font font)
+	{
+		snapshot.textWidths = new int[snapshot.text.length][3];
+		int[] columnWidths = new int[3];
+		for (int row = 0; row < snapshot.text.length; row++)
+		{
+			for (int column = 0; column < 3; column++)
+			{
+				snapshot.textWidths[row][column] = metrics.stringWidth(snapshot.text[row][column]);
+				columnWidths[column] = Math.max(columnWidths[column], snapshot.textWidths[row][column]);
+			}
+		}
+		int rowWidth = columnWidths[0] + columnWidths[1] + columnWidths[2] + 2 * COLUMN_GAP;
+		snapshot.columnWidths = columnWidths;
+		snapshot.width = Math.max(rowWidth, metrics.stringWidth(snapshot.title)) + 2 * PADDING;
+		snapshot.lineHeight = metrics.getHeight();
+		snapshot.ascent = metrics.getAscent();
+		snapshot.height = snapshot.lineHeight * (snapshot.text.length + 1) + 2 * PADDING;
+		snapshot.measuredFont = font;
+	}
+}
@@ -0,0 +1,108 @@
+package com.speaax;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Completions needed before a unique drops with a given confidence, for the planner section.
+ *
+ * <p>Future completions are assumed to follow the profile's level mix, so each one drops any of
+ * the items with the same chance and the number of completions to the first drop is geometric.
+ * Its CDF is tabulated once per item set up to {@link #MAX_CONFIDENCE}, built by repeated
+ * multiplication so it is monotone, and a confidence is answered by binary search. A table is
+ * only rebuilt once the per-completion chance moves by more than {@link #REBUILD_TOLERANCE},
+ * so dragging the confidence slider or a few new kills never rebuild it.</p>
+ */
+public class DelvePlanner
+{
+	// Highest confidence the tables cover, the slider stops below it
+	public static final double MAX_CONFIDENCE = 0.999;
+	// Relative change in the per-completion chance that rebuilds a table
+	static final double REBUILD_TOLERANCE = 0.005;
+	// Keeps a mix that almost never drops the item from building a huge table
+	private static final int MAX_TABLE_SIZE = 1 << 15;
+
+	private static class Table
+	{
+		final double chance;
+		// cdf[k] is the chance of at least one drop within k completions
+		final double[] cdf;
+
+		Table(double chance)
+		{
+			this.chance = chance;
+			double size = Math.ceil(Math.log1p(-MAX_CONFIDENCE) / Math.log1p(-chance)) + 2;
+			cdf = new double[(int) Math.min(size, MAX_TABLE_SIZE)];
+			double survival = 1;
+			for (int k = 1; k < cdf.length; k++)
+			{
+				survival *= 1 - chance;
+				cdf[k] = 1 - survival;
+			}
+		}
+	}
+
+	private final Map<Integer, Table> tables = new HashMap<>();
+
+	/**
+	 * @return chance that one completion at the profile's level mix drops any of the items, using
+	 * one completion of each level 1-8 when the profile is empty
+	 */
+	public static double getCompletionChance(DelveCalculatorData.DelveProfile profile, int[] itemIds)
+	{
+		int total = DelveCalculator.getTotalKills(profile);
+		if (total > 0) return DelveCalculator.getExpected(profile, itemIds) / total;
+
+		double[] rates = DelveCalculator.getLevelRates(profile, itemIds);
+		double chance = 0;
+		for (int level = 1; level <= 8; level++)
+		{
+			chance += rates[level];
+		}
+		return chance / 8;
+	}
+
+	/**
+	 * @param confidence wanted chance of a drop, capped at {@link #MAX_CONFIDENCE}
+	 * @return completions needed, or -1 if the items can't drop at this level mix
+	 */
+	public int getCompletionsNeeded(DelveCalculatorData.DelveProfile profile, int[] itemIds, double confidence)
+	{
+		double chance = getCompletionChance(profile, itemIds);
+		if (chance <= 0) return -1;
+		if (chance >= 1) return 1;
+
+		int mask = 0;
+		for (int itemId : itemIds)
+		{
+			mask |= 1 << RollingStats.itemIndex(itemId);
+		}
+		Table table = tables.get(mask);
+		if (table == null || Math.abs(chance - table.chance) > table.chance * REBUILD_TOLERANCE)
+		{
+			table = new Table(chance);
+			tables.put(mask, table);
+		}
+		confidence = Math.min(confidence, MAX_CONFIDENCE);
+		if (confidence > table.cdf[table.cdf.length - 1])
+		{
+			// Past the end of a capped table
+			return (int) Math.min(Integer.MAX_VALUE, Math.ceil(Math.log1p(-confidence) / Math.log1p(-chance)));
+		}
+		return search(table.cdf, confidence);
+	}
+
+	// First k with cdf[k] >= confidence
+	private static int search(double[] cdf, double confidence)
+	{
+		int low = 0;
+		int high = cdf.length - 1;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (cdf[mid] < confidence) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+}
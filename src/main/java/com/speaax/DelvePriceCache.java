@@ -0,0 +1,55 @@
+package com.speaax;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Grand Exchange prices of the delve uniques, kept for {@link #TTL_MILLIS} before they are
+ * fetched again. Fetching happens in the background through {@link #refresh}, and readers only
+ * ever see the last complete set, so pricing never touches the item manager on the render path.
+ *
+ * <p>Untradeable uniques such as Dom are priced at 0. A fetch that finds no price at all, as
+ * happens before the client has loaded prices, doesn't count and is retried on the next check.</p>
+ */
+public class DelvePriceCache
+{
+	static final long TTL_MILLIS = 30 * 60_000L;
+
+	// Indexed like RollingStats.ITEM_IDS, replaced whole so readers never see a partial refresh
+	private volatile long[] prices = new long[RollingStats.ITEM_IDS.length];
+	private volatile long fetchedAt = -1;
+
+	public long getPrice(int itemId)
+	{
+		int item = RollingStats.itemIndex(itemId);
+		return item < 0 ? 0 : prices[item];
+	}
+
+	public long getFetchedAt()
+	{
+		return fetchedAt;
+	}
+
+	public boolean isStale(long now)
+	{
+		return fetchedAt < 0 || now - fetchedAt >= TTL_MILLIS;
+	}
+
+	/**
+	 * @param source price of an item ID, called on whichever thread the source requires
+	 * @return true if prices were stored
+	 */
+	public boolean refresh(IntUnaryOperator source, long now)
+	{
+		long[] fetched = new long[RollingStats.ITEM_IDS.length];
+		boolean any = false;
+		for (int i = 0; i < fetched.length; i++)
+		{
+			fetched[i] = Math.max(0, source.applyAsInt(RollingStats.ITEM_IDS[i]));
+			any |= fetched[i] > 0;
+		}
+		if (!any) return false;
+		prices = fetched;
+		fetchedAt = now;
+		return true;
+	}
+}
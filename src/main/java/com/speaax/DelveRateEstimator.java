@@ -0,0 +1,220 @@
+package com.speaax;
+
+import java.util.Arrays;
+
+/**
+ * Credible intervals for the drop rates a player is actually seeing.
+ *
+ * <p>Claim screen drops can't be tied to the level they came from, so each unique's rate at every
+ * level is modelled as the wiki rate times one unknown multiplier. With completions as trials and
+ * rates this small, drops are Poisson with mean multiplier times expected drops, and a Gamma prior
+ * on the multiplier stays Gamma: the shape adds one per drop and the rate adds the wiki chance of
+ * each completion. A posterior is those two doubles, rebuilt from the profile's counts in constant
+ * time. The prior is worth {@value #PRIOR_DROPS} expected drop at exactly the wiki rate, so a new
+ * profile starts at the wiki rate rather than at zero.</p>
+ *
+ * <p>Scaling a Gamma only scales its quantiles, and the shape is always the prior plus a whole
+ * number of drops, so the interval ends of the unit-rate Gamma are computed once per drop count
+ * and cached. Rendering only divides cached quantiles by the rate. The cache is read without a
+ * lock: both arrays are published together through one volatile reference, which is swapped for
+ * larger copies when a new drop count is first asked for.</p>
+ */
+public final class DelveRateEstimator
+{
+	static final double PRIOR_DROPS = 1;
+	// 90% equal-tailed interval
+	public static final double LOWER = 0.05;
+	public static final double UPPER = 0.95;
+
+	/**
+	 * Lower and upper quantiles of Gamma(PRIOR_DROPS + drops, 1), indexed by drops. Never written
+	 * after it is published.
+	 */
+	private static final class Quantiles
+	{
+		final double[] lower;
+		final double[] upper;
+
+		Quantiles(double[] lower, double[] upper)
+		{
+			this.lower = lower;
+			this.upper = upper;
+		}
+	}
+
+	private static volatile Quantiles quantiles = new Quantiles(new double[0], new double[0]);
+
+	private DelveRateEstimator() {}
+
+	/**
+	 * Gamma posterior of the multiplier on the wiki rate.
+	 */
+	public static class Posterior
+	{
+		private final int drops;
+		public final double shape;
+		public final double rate;
+
+		Posterior(int drops, double expected)
+		{
+			this.drops = drops;
+			this.shape = PRIOR_DROPS + drops;
+			this.rate = PRIOR_DROPS + expected;
+		}
+
+		public double getMean()
+		{
+			return shape / rate;
+		}
+
+		public double getLower()
+		{
+			return lower(drops) / rate;
+		}
+
+		public double getUpper()
+		{
+			return upper(drops) / rate;
+		}
+	}
+
+	public static Posterior of(DelveCalculatorData.DelveProfile profile, int[] itemIds)
+	{
+		return new Posterior(DelveCalculator.getActual(profile, itemIds), DelveCalculator.getExpected(profile, itemIds));
+	}
+
+	/**
+	 * @return the {@link #LOWER} quantile of the unit-rate posterior after {@code drops} drops
+	 */
+	public static double lower(int drops)
+	{
+		Quantiles current = quantiles;
+		if (drops >= current.lower.length) current = grow(drops);
+		return current.lower[drops];
+	}
+
+	/**
+	 * @return the {@link #UPPER} quantile of the unit-rate posterior after {@code drops} drops
+	 */
+	public static double upper(int drops)
+	{
+		Quantiles current = quantiles;
+		if (drops >= current.upper.length) current = grow(drops);
+		return current.upper[drops];
+	}
+
+	// Only growing takes the lock, and a thread that lost the race reuses the winner's arrays
+	private static synchronized Quantiles grow(int drops)
+	{
+		Quantiles current = quantiles;
+		if (drops < current.lower.length) return current;
+
+		int from = current.lower.length;
+		int size = Math.max(drops + 1, from * 2);
+		double[] lower = Arrays.copyOf(current.lower, size);
+		double[] upper = Arrays.copyOf(current.upper, size);
+		for (int i = from; i < size; i++)
+		{
+			lower[i] = gammaQuantile(PRIOR_DROPS + i, LOWER);
+			upper[i] = gammaQuantile(PRIOR_DROPS + i, UPPER);
+		}
+		Quantiles grown = new Quantiles(lower, upper);
+		quantiles = grown;
+		return grown;
+	}
+
+	/**
+	 * @return x with P(shape, x) = p for the unit-rate Gamma, by bisection
+	 */
+	static double gammaQuantile(double shape, double p)
+	{
+		double low = 0;
+		double high = shape + 20 * Math.sqrt(shape) + 20;
+		for (int i = 0; i < 200 && high - low > 1e-12 * high; i++)
+		{
+			double mid = (low + high) / 2;
+			if (regularizedGammaP(shape, mid) < p) low = mid;
+			else high = mid;
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * Lower regularized incomplete gamma function, by its series below {@code shape + 1} and its
+	 * continued fraction above.
+	 */
+	static double regularizedGammaP(double shape, double x)
+	{
+		if (x <= 0) return 0;
+		double logPrefix = -x + shape * Math.log(x) - logGamma(shape);
+		return x < shape + 1 ? gammaSeries(shape, x, logPrefix) : 1 - gammaFraction(shape, x, logPrefix);
+	}
+
+	/**
+	 * Upper regularized incomplete gamma function, 1 - P computed directly so small values keep
+	 * their precision.
+	 */
+	static double regularizedGammaQ(double shape, double x)
+	{
+		if (x <= 0) return 1;
+		double logPrefix = -x + shape * Math.log(x) - logGamma(shape);
+		return x < shape + 1 ? 1 - gammaSeries(shape, x, logPrefix) : gammaFraction(shape, x, logPrefix);
+	}
+
+	private static double gammaSeries(double shape, double x, double logPrefix)
+	{
+		double term = 1 / shape;
+		double sum = term;
+		for (int n = 1; n < 1000; n++)
+		{
+			term *= x / (shape + n);
+			sum += term;
+			if (Math.abs(term) < Math.abs(sum) * 1e-15) break;
+		}
+		return sum * Math.exp(logPrefix);
+	}
+
+	// Modified Lentz for the upper function Q
+	private static double gammaFraction(double shape, double x, double logPrefix)
+	{
+		double tiny = 1e-300;
+		double b = x + 1 - shape;
+		double c = 1 / tiny;
+		double d = 1 / b;
+		double h = d;
+		for (int n = 1; n < 1000; n++)
+		{
+			double an = -n * (n - shape);
+			b += 2;
+			d = an * d + b;
+			if (Math.abs(d) < tiny) d = tiny;
+			c = b + an / c;
+			if (Math.abs(c) < tiny) c = tiny;
+			d = 1 / d;
+			double delta = d * c;
+			h *= delta;
+			if (Math.abs(delta - 1) < 1e-15) break;
+		}
+		return Math.exp(logPrefix) * h;
+	}
+
+	// Lanczos approximation, accurate to about 15 digits for positive arguments
+	private static final double[] LANCZOS = {
+		0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+		-176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+		1.5056327351493116e-7
+	};
+
+	static double logGamma(double x)
+	{
+		if (x < 0.5) return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1 - x);
+		x -= 1;
+		double sum = LANCZOS[0];
+		for (int i = 1; i < LANCZOS.length; i++)
+		{
+			sum += LANCZOS[i] / (x + i);
+		}
+		double t = x + 7.5;
+		return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+	}
+}
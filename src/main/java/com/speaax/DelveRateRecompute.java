@@ -0,0 +1,90 @@
+package com.speaax;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Moves every loaded profile onto a new drop rate table without blocking the panel.
+ *
+ * <p>Before the new table is published, each profile is pinned to the table it was shown with, so
+ * every number drawn for a profile still comes from one table. The rate-dependent state of the
+ * profiles is then recomputed from copies in parallel on the fork-join pool. Each result goes back
+ * to the profiles' single writer, which applies it and unpins that profile in one task, so a
+ * profile switches from its old values to its new ones at once and the others keep showing their
+ * old values until their turn.</p>
+ */
+@Slf4j
+public final class DelveRateRecompute
+{
+	private DelveRateRecompute() {}
+
+	/**
+	 * Must be called on {@code writer}, the only thread that changes the profiles.
+	 *
+	 * @param onPublished called on the writer after each profile moved to the new table
+	 * @return false if the rates are already the current table
+	 */
+	public static boolean start(Collection<DelveCalculatorData.DelveProfile> profiles, Map<Integer, DelveRates.DropRates> rates,
+								DelveAlerts alerts, Executor writer, Runnable onPublished)
+	{
+		DelveRates.Table current = DelveRates.getTable();
+		List<DelveCalculatorData.DelveProfile> pinned = new ArrayList<>(profiles.size());
+		List<DelveCalculatorData.DelveProfile> copies = new ArrayList<>(profiles.size());
+		for (DelveCalculatorData.DelveProfile profile : profiles)
+		{
+			// Already pinned by an earlier job that hasn't reached it yet
+			if (profile.getRates() == null) profile.setRates(current);
+			pinned.add(profile);
+			copies.add(profile.copy());
+		}
+
+		DelveRates.Table next = DelveRates.setDropRates(rates);
+		if (next == current)
+		{
+			for (DelveCalculatorData.DelveProfile profile : pinned)
+			{
+				profile.setRates(null);
+			}
+			return false;
+		}
+		alerts.reindex();
+		long start = System.nanoTime();
+
+		ForkJoinPool.commonPool().execute(() -> {
+			IntStream.range(0, copies.size()).parallel().forEach(i -> {
+				DelveAlerts.State state = null;
+				try
+				{
+					state = alerts.compute(copies.get(i), next);
+				}
+				catch (RuntimeException e)
+				{
+					log.debug("Error recomputing delve profile {}", copies.get(i).getName(), e);
+				}
+				// Unpinned even if the state failed, the next event then prepares it again
+				DelveAlerts.State computed = state;
+				writer.execute(() -> publish(pinned.get(i), computed, next, alerts, onPublished));
+			});
+			log.debug("Recomputed {} profiles for rate table {} in {} ms", copies.size(), next.getVersion(),
+					(System.nanoTime() - start) / 1_000_000);
+		});
+		return true;
+	}
+
+	private static void publish(DelveCalculatorData.DelveProfile profile, DelveAlerts.State state, DelveRates.Table next,
+								DelveAlerts alerts, Runnable onPublished)
+	{
+		// A newer table was published meanwhile, and its own job will unpin the profile
+		if (DelveRates.getTable() != next) return;
+		if (state != null) alerts.apply(profile, state);
+		profile.setRates(null);
+		onPublished.run();
+	}
+}
@@ -0,0 +1,207 @@
+package com.speaax;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Drop rate table for the Doom of Mokhaiotl delve, by level. Level 9 stands for waves past 8.
+ *
+ * <p>Item IDs are literals with the values of the client's {@code ItemID} constants, so this and
+ * the other core classes don't import the client.</p>
+ *
+ * <p>The wiki rates are the default {@link Table}. A corrected table can be published at runtime
+ * with {@link #setDropRates}, and a profile that is still being moved onto it keeps reading the
+ * table pinned on it, see {@link DelveRateRecompute}.</p>
+ */
+public final class DelveRates
+{
+	public static final int MOKHAIOTL_CLOTH = 31109;
+	public static final int EYE_OF_AYAK = 31115; // Uncharged
+	public static final int AVERNIC_TREADS = 31097;
+	public static final int DOM = 31130;
+
+	private static final Map<Integer, DropRates> DEFAULT_DROP_RATES = new HashMap<>();
+	private static final Map<String, Integer> UNIQUE_DROPS = new LinkedHashMap<>();
+
+	static {
+		DEFAULT_DROP_RATES.put(2, new DropRates(1.0/2500, 1.0/2500, 0, 0, 0));
+		DEFAULT_DROP_RATES.put(3, new DropRates(1.0/1000, 1.0/2000, 1.0/2000, 0, 0));
+		DEFAULT_DROP_RATES.put(4, new DropRates(1.0/450, 1.0/1350, 1.0/1350, 1.0/1350, 0));
+		DEFAULT_DROP_RATES.put(5, new DropRates(1.0/270, 1.0/810, 1.0/810, 1.0/810, 0));
+		DEFAULT_DROP_RATES.put(6, new DropRates(1.0/255, 1.0/765, 1.0/765, 1.0/765, 1.0/1000));
+		DEFAULT_DROP_RATES.put(7, new DropRates(1.0/240, 1.0/720, 1.0/720, 1.0/720, 1.0/750));
+		DEFAULT_DROP_RATES.put(8, new DropRates(1.0/210, 1.0/630, 1.0/630, 1.0/630, 1.0/500));
+		DEFAULT_DROP_RATES.put(9, new DropRates(1.0/180, 1.0/540, 1.0/540, 1.0/540, 1.0/250));
+
+		UNIQUE_DROPS.put("Mokhaiotl cloth", MOKHAIOTL_CLOTH);
+		UNIQUE_DROPS.put("Eye of ayak (uncharged)", EYE_OF_AYAK);
+		UNIQUE_DROPS.put("Avernic treads", AVERNIC_TREADS);
+		UNIQUE_DROPS.put("Dom", DOM);
+	}
+
+	private static volatile Table table = new Table(0, DEFAULT_DROP_RATES);
+
+	private DelveRates() {}
+
+	/**
+	 * One immutable version of the rate table.
+	 */
+	public static final class Table
+	{
+		@Getter private final int version;
+		private final Map<Integer, DropRates> byLevel;
+
+		private Table(int version, Map<Integer, DropRates> byLevel)
+		{
+			this.version = version;
+			this.byLevel = Collections.unmodifiableMap(new HashMap<>(byLevel));
+		}
+
+		public Map<Integer, DropRates> getDropRates()
+		{
+			return byLevel;
+		}
+
+		public DropRates forLevel(int level)
+		{
+			return byLevel.get(level);
+		}
+	}
+
+	public static Table getTable()
+	{
+		return table;
+	}
+
+	/**
+	 * @return the table pinned on the profile while it is recomputed, otherwise the current one
+	 */
+	public static Table getTable(DelveCalculatorData.DelveProfile profile)
+	{
+		Table pinned = profile.getRates();
+		return pinned != null ? pinned : table;
+	}
+
+	/**
+	 * Publishes a new table, unless the rates are the same as the current ones.
+	 *
+	 * @return the current table afterwards
+	 */
+	public static synchronized Table setDropRates(Map<Integer, DropRates> rates)
+	{
+		Table current = table;
+		if (!current.byLevel.equals(rates)) table = new Table(current.version + 1, rates);
+		return table;
+	}
+
+	public static Map<Integer, DropRates> getDefaultDropRates()
+	{
+		return Collections.unmodifiableMap(DEFAULT_DROP_RATES);
+	}
+
+	/**
+	 * Reads corrections such as {@code "9:1/180,1/540,1/540,1/540,1/250"} over the default table.
+	 * Levels are separated by ';' and each lists the overall, cloth, eye, treads and Dom chances
+	 * as "1/N", a decimal or 0.
+	 *
+	 * @throws IllegalArgumentException if the text can't be read
+	 */
+	public static Map<Integer, DropRates> parseCorrections(String text)
+	{
+		Map<Integer, DropRates> rates = new HashMap<>(DEFAULT_DROP_RATES);
+		for (String entry : text.split(";"))
+		{
+			if (entry.trim().isEmpty()) continue;
+			String[] parts = entry.split(":");
+			if (parts.length != 2) throw new IllegalArgumentException("Expected level:rates in '" + entry.trim() + "'");
+			int level = Integer.parseInt(parts[0].trim());
+			if (level < 2 || level > 9) throw new IllegalArgumentException("Invalid level " + level);
+			String[] chances = parts[1].split(",");
+			if (chances.length != 5) throw new IllegalArgumentException("Expected 5 rates for level " + level);
+			double[] values = new double[5];
+			for (int i = 0; i < 5; i++)
+			{
+				values[i] = parseChance(chances[i].trim());
+			}
+			rates.put(level, new DropRates(values[0], values[1], values[2], values[3], values[4]));
+		}
+		return rates;
+	}
+
+	private static double parseChance(String chance)
+	{
+		int slash = chance.indexOf('/');
+		double value = slash < 0 ? Double.parseDouble(chance)
+				: Double.parseDouble(chance.substring(0, slash)) / Double.parseDouble(chance.substring(slash + 1));
+		if (!(value >= 0 && value <= 1)) throw new IllegalArgumentException("Invalid chance " + chance);
+		return value;
+	}
+
+	public static Map<Integer, DropRates> getDropRates()
+	{
+		return table.getDropRates();
+	}
+
+	/**
+	 * @return unique item names to item IDs, in display order
+	 */
+	public static Map<String, Integer> getUniqueDropsMap()
+	{
+		return Collections.unmodifiableMap(UNIQUE_DROPS);
+	}
+
+	/**
+	 * @return the drop rates for a level, or null if the level has no unique table
+	 */
+	public static DropRates forLevel(int level)
+	{
+		return table.forLevel(level);
+	}
+
+	public static class DropRates
+	{
+		public final double overallChance;
+		public final double mokhaiotlCloth;
+		public final double eyeOfAyak;
+		public final double avernicTreads;
+		public final double dom;
+
+		public DropRates(double overall, double mokhaiotl, double eye, double avernic, double dom)
+		{
+			this.overallChance = overall;
+			this.mokhaiotlCloth = mokhaiotl;
+			this.eyeOfAyak = eye;
+			this.avernicTreads = avernic;
+			this.dom = dom;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof DropRates)) return false;
+			DropRates other = (DropRates) o;
+			return overallChance == other.overallChance && mokhaiotlCloth == other.mokhaiotlCloth && eyeOfAyak == other.eyeOfAyak
+					&& avernicTreads == other.avernicTreads && dom == other.dom;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(overallChance, mokhaiotlCloth, eyeOfAyak, avernicTreads, dom);
+		}
+
+		public double getRate(int itemId)
+		{
+			if (itemId == MOKHAIOTL_CLOTH) return mokhaiotlCloth;
+			if (itemId == EYE_OF_AYAK) return eyeOfAyak;
+			if (itemId == AVERNIC_TREADS) return avernicTreads;
+			if (itemId == DOM) return dom;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.speaax;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe marker of where the current session started. Session totals themselves are not
+ * stored: the completions and drops since {@link #getStart()} are already in each mode's
+ * {@link DelveHistory}, so recovery replays the tail of those logs.
+ *
+ * <p>The marker is 28 bytes: magic, version, start and last activity times, then a CRC32 of
+ * everything before it. It is written to a temporary file, forced to disk and renamed over the
+ * old one, so a crash leaves either the old or the new marker. A marker that fails its checksum
+ * is ignored and a new session starts.</p>
+ */
+@Slf4j
+public class DelveSessionStore
+{
+	private static final int MAGIC = 0x44534553; // "DSES"
+	private static final int VERSION = 1;
+	private static final int SIZE = 28;
+
+	private final File file;
+	@Getter private long start = -1;
+	@Getter private long lastActivity = -1;
+
+	private DelveSessionStore(File file)
+	{
+		this.file = file;
+	}
+
+	public static DelveSessionStore load(File file)
+	{
+		DelveSessionStore store = new DelveSessionStore(file);
+		if (!file.isFile() || file.length() != SIZE) return store;
+
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			CRC32 crc = new CRC32();
+			crc.update(buffer.array(), 0, SIZE - 4);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return store;
+			long start = buffer.getLong();
+			long lastActivity = buffer.getLong();
+			if (buffer.getInt() != (int) crc.getValue())
+			{
+				log.debug("Ignoring corrupt delve session marker {}", file);
+				return store;
+			}
+			store.start = start;
+			store.lastActivity = lastActivity;
+		}
+		catch (IOException e)
+		{
+			log.debug("Error loading delve session marker", e);
+		}
+		return store;
+	}
+
+	public boolean exists()
+	{
+		return start >= 0;
+	}
+
+	/**
+	 * @param idleMillis longest gap between activity that keeps a session going
+	 */
+	public boolean isExpired(long now, long idleMillis)
+	{
+		return !exists() || now - lastActivity > idleMillis;
+	}
+
+	public void reset(long now)
+	{
+		start = now;
+		lastActivity = now;
+	}
+
+	public void touch(long now)
+	{
+		lastActivity = Math.max(lastActivity, now);
+	}
+
+	/**
+	 * Adds the history's events since the session start to a session profile.
+	 */
+	public void replay(DelveHistory history, DelveCalculatorData.DelveProfile into)
+	{
+		history.read(history.indexAtOrAfter(start), (time, code) -> {
+			if (code >= DelveHistory.DROP_CODE_BASE) into.addDrop(RollingStats.ITEM_IDS[code - DelveHistory.DROP_CODE_BASE]);
+			else if (code == DelveHistory.DEATH_CODE) return;
+			else if (code == 9) into.addWave8();
+			else into.addKills(code, 1);
+		});
+	}
+
+	public void save()
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(start).putLong(lastActivity);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, SIZE - 4);
+		buffer.putInt((int) crc.getValue());
+
+		File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) return;
+		File temp = new File(file.getPath() + ".tmp");
+		try
+		{
+			try (FileOutputStream out = new FileOutputStream(temp))
+			{
+				out.write(buffer.array());
+				out.getFD().sync();
+			}
+			try
+			{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e)
+		{
+			log.debug("Error writing delve session marker", e);
+		}
+	}
+}
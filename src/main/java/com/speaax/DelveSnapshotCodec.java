@@ -0,0 +1,288 @@
+package com.speaax;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact encoding of the stored data blob: varint-packed binary, deflated and then
+ * Base64 encoded so it stays a plain config string. Values that start with '{' are
+ * still read as legacy JSON by {@link DelveLegacyJson}, so existing data loads unchanged
+ * and is rewritten in the compact form on the next save.
+ */
+public class DelveSnapshotCodec
+{
+	static final String PREFIX = "DC1:";
+	// Version 2 stores a count per unique on each completion of the level windows
+	static final int FORMAT_VERSION = 2;
+
+	public String encode(DelveCalculatorData data)
+	{
+		Output out = new Output();
+		out.writeVarint(FORMAT_VERSION);
+
+		Map<String, DelveCalculatorData.DelveProfile> profiles = data.getProfiles();
+		out.writeVarint(profiles.size());
+		for (Map.Entry<String, DelveCalculatorData.DelveProfile> entry : profiles.entrySet())
+		{
+			DelveCalculatorData.DelveProfile profile = entry.getValue();
+			out.writeString(entry.getKey());
+			out.writeString(profile.getName());
+			for (int level = 1; level <= 8; level++)
+			{
+				out.writeVarint(profile.getLevelKills().getOrDefault(level, 0));
+			}
+			out.writeVarint(profile.getWavesPast8());
+			out.writeVarint(profile.getObtainedUniques().size());
+			for (Map.Entry<Integer, Integer> unique : profile.getObtainedUniques().entrySet())
+			{
+				out.writeVarint(unique.getKey());
+				out.writeVarint(unique.getValue());
+			}
+		}
+
+		Map<String, RollingStats> rollingStats = data.getRollingStats();
+		out.writeVarint(rollingStats.size());
+		for (Map.Entry<String, RollingStats> entry : rollingStats.entrySet())
+		{
+			out.writeString(entry.getKey());
+			entry.getValue().encode(out);
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try
+		{
+			deflater.setInput(out.buffer, 0, out.size);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, out.size / 4));
+			byte[] chunk = new byte[4096];
+			while (!deflater.finished())
+			{
+				int length = deflater.deflate(chunk);
+				compressed.write(chunk, 0, length);
+			}
+			return PREFIX + Base64.getEncoder().encodeToString(compressed.toByteArray());
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is neither JSON nor a valid snapshot
+	 */
+	public DelveCalculatorData decode(String stored)
+	{
+		String trimmed = stored.trim();
+		if (trimmed.startsWith("{"))
+		{
+			return DelveLegacyJson.read(trimmed);
+		}
+		if (!trimmed.startsWith(PREFIX))
+		{
+			throw new IllegalArgumentException("Unrecognised stored data format");
+		}
+
+		Input in = new Input(inflate(Base64.getDecoder().decode(trimmed.substring(PREFIX.length()))));
+		int version = in.readVarint();
+		if (version < 1 || version > FORMAT_VERSION)
+		{
+			throw new IllegalArgumentException("Unsupported snapshot version " + version);
+		}
+
+		DelveCalculatorData data = new DelveCalculatorData();
+		int profileCount = in.readVarint();
+		for (int i = 0; i < profileCount; i++)
+		{
+			String key = in.readString();
+			DelveCalculatorData.DelveProfile profile = new DelveCalculatorData.DelveProfile(in.readString(), false);
+			for (int level = 1; level <= 8; level++)
+			{
+				int kills = in.readVarint();
+				if (kills != 0) profile.getLevelKills().put(level, kills);
+			}
+			profile.setWavesPast8(in.readVarint());
+			int uniqueCount = in.readVarint();
+			for (int u = 0; u < uniqueCount; u++)
+			{
+				int itemId = in.readVarint();
+				profile.getObtainedUniques().put(itemId, in.readVarint());
+			}
+			data.getProfiles().put(key, profile);
+		}
+
+		int statsCount = in.readVarint();
+		for (int i = 0; i < statsCount; i++)
+		{
+			String key = in.readString();
+			data.getRollingStats().put(key, RollingStats.decode(in, version));
+		}
+		return data;
+	}
+
+	private static byte[] inflate(byte[] compressed)
+	{
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(compressed);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+			byte[] chunk = new byte[4096];
+			while (!inflater.finished())
+			{
+				int length = inflater.inflate(chunk);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					throw new IllegalArgumentException("Truncated snapshot");
+				}
+				out.write(chunk, 0, length);
+			}
+			return out.toByteArray();
+		}
+		catch (DataFormatException e)
+		{
+			throw new IllegalArgumentException("Corrupt snapshot", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Growable byte buffer with LEB128 varint writers. Signed values use zigzag encoding.
+	 */
+	static class Output
+	{
+		private byte[] buffer = new byte[1024];
+		private int size;
+
+		int size()
+		{
+			return size;
+		}
+
+		byte[] toByteArray()
+		{
+			return Arrays.copyOf(buffer, size);
+		}
+
+		void writeByte(int value)
+		{
+			if (size == buffer.length)
+			{
+				buffer = Arrays.copyOf(buffer, size * 2);
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		void writeVarint(int value)
+		{
+			writeVarlong(value & 0xFFFFFFFFL);
+		}
+
+		void writeVarlong(long value)
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((int) value);
+		}
+
+		void writeSignedVarlong(long value)
+		{
+			writeVarlong((value << 1) ^ (value >> 63));
+		}
+
+		// Length is written plus one so that null can be told apart from empty
+		void writeString(String value)
+		{
+			if (value == null)
+			{
+				writeVarint(0);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length + 1);
+			for (byte b : bytes)
+			{
+				writeByte(b);
+			}
+		}
+	}
+
+	static class Input
+	{
+		private final byte[] buffer;
+		private int position;
+
+		Input(byte[] buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		int position()
+		{
+			return position;
+		}
+
+		boolean hasRemaining()
+		{
+			return position < buffer.length;
+		}
+
+		int readByte()
+		{
+			if (position >= buffer.length)
+			{
+				throw new IllegalArgumentException("Truncated snapshot");
+			}
+			return buffer[position++] & 0xFF;
+		}
+
+		int readVarint()
+		{
+			return (int) readVarlong();
+		}
+
+		long readVarlong()
+		{
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IllegalArgumentException("Malformed varint");
+		}
+
+		long readSignedVarlong()
+		{
+			long raw = readVarlong();
+			return (raw >>> 1) ^ -(raw & 1);
+		}
+
+		String readString()
+		{
+			int length = readVarint();
+			if (length == 0) return null;
+			length--;
+			if (length > buffer.length - position)
+			{
+				throw new IllegalArgumentException("Truncated snapshot");
+			}
+			String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+	}
+}
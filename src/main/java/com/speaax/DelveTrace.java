@@ -0,0 +1,345 @@
+package com.speaax;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Compact binary trace of the raw inputs handed to {@link DelveEventParser}, for
+ * reproducing bugs and measuring parser throughput on real sessions.
+ *
+ * <p>A trace starts with the magic {@code DTRC} and a varint format version. Each record
+ * is a type byte, the milliseconds since the previous record as a varint, and a payload.
+ * Integers are LEB128 varints (zigzag where they can be negative) and strings are a
+ * varint byte length plus one, zero meaning null, followed by UTF-8 bytes. The game
+ * mode is written as its own record only when it changes.</p>
+ */
+public final class DelveTrace
+{
+	private static final byte[] MAGIC = {'D', 'T', 'R', 'C'};
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int RECORD_MODE = 1;
+	private static final int RECORD_CHAT = 2;
+	private static final int RECORD_SCOREBOARD = 3;
+	private static final int RECORD_LOOT = 4;
+	private static final int RECORD_COLLECTION_LOG = 5;
+
+	private static final int CHAT_GAMEMESSAGE = 1;
+	private static final int CHAT_SPAM = 2;
+
+	private DelveTrace() {}
+
+	/**
+	 * Appends records to a stream. Not thread-safe; the plugin only records and flushes from the
+	 * client thread. Records are buffered until {@link #flush} or {@link #close}. A write error
+	 * stops recording instead of surfacing on the event path.
+	 */
+	public static class Recorder implements Closeable
+	{
+		private final OutputStream out;
+		private String lastMode;
+		private long lastTime;
+		private boolean failed;
+
+		public Recorder(OutputStream out) throws IOException
+		{
+			this.out = new BufferedOutputStream(out, 1 << 16);
+			this.out.write(MAGIC);
+			writeVarint(FORMAT_VERSION);
+			this.lastTime = System.currentTimeMillis();
+		}
+
+		void chat(String mode, DelveEventParser.ChatType type, String message, boolean inRegion)
+		{
+			begin(mode, RECORD_CHAT);
+			write(type == DelveEventParser.ChatType.SPAM ? CHAT_SPAM : CHAT_GAMEMESSAGE);
+			writeString(message);
+			write(inRegion ? 1 : 0);
+		}
+
+		void scoreboard(String mode, String[] levelTexts)
+		{
+			begin(mode, RECORD_SCOREBOARD);
+			writeVarint(levelTexts.length);
+			for (String text : levelTexts)
+			{
+				writeString(text);
+			}
+		}
+
+		void loot(String mode, int[] itemIds)
+		{
+			begin(mode, RECORD_LOOT);
+			writeVarint(itemIds.length);
+			for (int itemId : itemIds)
+			{
+				writeSigned(itemId);
+			}
+		}
+
+		void collectionLog(String mode, int[] itemIds, int[] quantities, int[] opacities)
+		{
+			begin(mode, RECORD_COLLECTION_LOG);
+			writeVarint(itemIds.length);
+			for (int i = 0; i < itemIds.length; i++)
+			{
+				writeSigned(itemIds[i]);
+				writeVarint(quantities[i]);
+				writeVarint(opacities[i]);
+			}
+		}
+
+		public boolean isFailed()
+		{
+			return failed;
+		}
+
+		/**
+		 * Writes out the buffered records, so a session that ends without {@link #close} keeps them.
+		 */
+		public void flush()
+		{
+			if (failed) return;
+			try
+			{
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				failed = true;
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+		}
+
+		private void begin(String mode, int type)
+		{
+			long now = System.currentTimeMillis();
+			long delta = Math.max(0, now - lastTime);
+			lastTime = now;
+
+			if (!Objects.equals(mode, lastMode))
+			{
+				lastMode = mode;
+				write(RECORD_MODE);
+				writeVarlong(delta);
+				writeString(mode);
+				delta = 0;
+			}
+			write(type);
+			writeVarlong(delta);
+		}
+
+		private void writeString(String value)
+		{
+			if (value == null)
+			{
+				writeVarint(0);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length + 1);
+			if (failed) return;
+			try
+			{
+				out.write(bytes);
+			}
+			catch (IOException e)
+			{
+				failed = true;
+			}
+		}
+
+		private void writeSigned(int value)
+		{
+			writeVarint((value << 1) ^ (value >> 31));
+		}
+
+		private void writeVarint(int value)
+		{
+			writeVarlong(value & 0xFFFFFFFFL);
+		}
+
+		private void writeVarlong(long value)
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		private void write(int b)
+		{
+			if (failed) return;
+			try
+			{
+				out.write(b);
+			}
+			catch (IOException e)
+			{
+				failed = true;
+			}
+		}
+	}
+
+	/**
+	 * Feeds a whole trace held in memory through a parser. The parser should be built
+	 * with {@link #getMode()} as its game mode supplier so recorded mode changes apply.
+	 */
+	public static class Player
+	{
+		private final byte[] trace;
+		private int position;
+		private String mode = "STANDARD";
+		private long time;
+		private boolean inRegion;
+
+		public Player(byte[] trace)
+		{
+			this.trace = trace;
+		}
+
+		public String getMode()
+		{
+			return mode;
+		}
+
+		/**
+		 * @return milliseconds since the start of the trace at the record being replayed
+		 */
+		public long getTime()
+		{
+			return time;
+		}
+
+		/**
+		 * @return number of parser inputs replayed
+		 * @throws IllegalArgumentException if the trace is malformed
+		 */
+		public long replay(DelveEventParser parser)
+		{
+			position = 0;
+			time = 0;
+			mode = "STANDARD";
+			for (byte b : MAGIC)
+			{
+				if (readByte() != b) throw new IllegalArgumentException("Not a delve trace");
+			}
+			int version = readVarint();
+			if (version != FORMAT_VERSION) throw new IllegalArgumentException("Unsupported trace version " + version);
+
+			long events = 0;
+			while (position < trace.length)
+			{
+				int type = readByte();
+				time += readVarlong();
+				switch (type)
+				{
+					case RECORD_MODE:
+						mode = readString();
+						break;
+					case RECORD_CHAT:
+					{
+						DelveEventParser.ChatType chatType = readByte() == CHAT_SPAM ? DelveEventParser.ChatType.SPAM : DelveEventParser.ChatType.GAMEMESSAGE;
+						String message = readString();
+						inRegion = readByte() != 0;
+						parser.onChatMessage(chatType, message, () -> inRegion);
+						events++;
+						break;
+					}
+					case RECORD_SCOREBOARD:
+					{
+						String[] texts = new String[readVarint()];
+						for (int i = 0; i < texts.length; i++)
+						{
+							texts[i] = readString();
+						}
+						parser.onScoreboard(texts);
+						events++;
+						break;
+					}
+					case RECORD_LOOT:
+					{
+						int[] itemIds = new int[readVarint()];
+						for (int i = 0; i < itemIds.length; i++)
+						{
+							itemIds[i] = readSigned();
+						}
+						parser.onLootInterface(itemIds);
+						events++;
+						break;
+					}
+					case RECORD_COLLECTION_LOG:
+					{
+						int count = readVarint();
+						int[] itemIds = new int[count];
+						int[] quantities = new int[count];
+						int[] opacities = new int[count];
+						for (int i = 0; i < count; i++)
+						{
+							itemIds[i] = readSigned();
+							quantities[i] = readVarint();
+							opacities[i] = readVarint();
+						}
+						parser.onCollectionLog(itemIds, quantities, opacities);
+						events++;
+						break;
+					}
+					default:
+						throw new IllegalArgumentException("Unknown trace record " + type + " at byte " + position);
+				}
+			}
+			return events;
+		}
+
+		private int readByte()
+		{
+			if (position >= trace.length) throw new IllegalArgumentException("Truncated trace");
+			return trace[position++] & 0xFF;
+		}
+
+		private int readSigned()
+		{
+			int raw = readVarint();
+			return (raw >>> 1) ^ -(raw & 1);
+		}
+
+		private int readVarint()
+		{
+			return (int) readVarlong();
+		}
+
+		private long readVarlong()
+		{
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IllegalArgumentException("Malformed varint");
+		}
+
+		private String readString()
+		{
+			int length = readVarint();
+			if (length == 0) return null;
+			length--;
+			if (length > trace.length - position) throw new IllegalArgumentException("Truncated trace");
+			String value = new String(trace, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+	}
+}
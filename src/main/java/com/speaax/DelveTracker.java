@@ -0,0 +1,361 @@
+package com.speaax;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Applies delve events to the stored profiles, rolling windows and history of a game mode.
+ * Each completion or drop is counted in the All profile (keyed by mode), the Manual profile
+ * (keyed by {@code mode:MANUAL}) and the in-memory Session profile. Saving and refreshing
+ * are left to the caller.
+ *
+ * <p>The All, Manual and Session profiles are also summed over every game mode. Single events
+ * are added to those sums as they are recorded, and bulk changes such as scoreboard syncs
+ * rebuild them in one pass over the modes, so showing them costs the same as one profile.</p>
+ *
+ * <p>When a {@link DelveCounterStore} is set, changes to the All and Manual profiles are also
+ * recorded there so they can be merged with other clients logged into the same account.</p>
+ */
+public class DelveTracker
+{
+	private final Supplier<DelveCalculatorData> data;
+	private final Function<String, DelveCalculatorData.DelveProfile> sessionProfiles;
+	private final Function<String, DelveHistory> histories;
+	private DelveCounterStore store;
+	private DelveAlerts alerts;
+	private final DelveCalculatorData.DelveProfile allModes = new DelveCalculatorData.DelveProfile("All modes", false);
+	private final DelveCalculatorData.DelveProfile allModesManual = new DelveCalculatorData.DelveProfile("All modes", false);
+	private final DelveCalculatorData.DelveProfile allModesSession = new DelveCalculatorData.DelveProfile("All modes", false);
+	// Modes with a session profile, which lives outside the stored data
+	private final Set<String> sessionModes = ConcurrentHashMap.newKeySet();
+
+	private static final String MANUAL_SUFFIX = ":MANUAL";
+
+	/**
+	 * @param data stored data, read on every call so it may be loaded lazily
+	 * @param sessionProfiles session profile for a mode
+	 * @param histories event history for a mode
+	 */
+	public DelveTracker(Supplier<DelveCalculatorData> data,
+						Function<String, DelveCalculatorData.DelveProfile> sessionProfiles,
+						Function<String, DelveHistory> histories)
+	{
+		this.data = data;
+		this.sessionProfiles = sessionProfiles;
+		this.histories = histories;
+	}
+
+	/**
+	 * @param store shared counts for the current account, or null to only update the profiles
+	 */
+	public void setStore(DelveCounterStore store)
+	{
+		this.store = store;
+	}
+
+	/**
+	 * @param alerts rules checked after each completion and drop, or null for none
+	 */
+	public void setAlerts(DelveAlerts alerts)
+	{
+		this.alerts = alerts;
+	}
+
+	public static String getManualProfileKey(String mode)
+	{
+		return mode + MANUAL_SUFFIX;
+	}
+
+	public DelveCalculatorData.DelveProfile getAllProfile(String mode)
+	{
+		return data.get().getProfiles().computeIfAbsent(mode, k -> new DelveCalculatorData.DelveProfile(mode, true));
+	}
+
+	public DelveCalculatorData.DelveProfile getManualProfile(String mode)
+	{
+		return data.get().getProfiles().computeIfAbsent(getManualProfileKey(mode), k -> new DelveCalculatorData.DelveProfile("Manual", true));
+	}
+
+	public DelveCalculatorData.DelveProfile getSessionProfile(String mode)
+	{
+		sessionModes.add(mode);
+		return sessionProfiles.apply(mode);
+	}
+
+	public DelveCalculatorData.DelveProfile getAllModesProfile()
+	{
+		return allModes;
+	}
+
+	public DelveCalculatorData.DelveProfile getAllModesManualProfile()
+	{
+		return allModesManual;
+	}
+
+	public DelveCalculatorData.DelveProfile getAllModesSessionProfile()
+	{
+		return allModesSession;
+	}
+
+	/**
+	 * Recomputes the sums over every mode, after changes that weren't recorded one event at a time.
+	 */
+	public void rebuildAllModes()
+	{
+		clear(allModes);
+		clear(allModesManual);
+		for (Map.Entry<String, DelveCalculatorData.DelveProfile> entry : data.get().getProfiles().entrySet())
+		{
+			add(entry.getKey().endsWith(MANUAL_SUFFIX) ? allModesManual : allModes, entry.getValue());
+		}
+		clear(allModesSession);
+		for (String mode : sessionModes)
+		{
+			add(allModesSession, sessionProfiles.apply(mode));
+		}
+	}
+
+	/**
+	 * Sums a Recent window over every mode's rolling stats into {@code target}.
+	 */
+	public void fillAllModesRecent(RollingStats.Window window, DelveCalculatorData.DelveProfile target, long now)
+	{
+		clear(target);
+		DelveCalculatorData.DelveProfile mode = new DelveCalculatorData.DelveProfile("Recent", false);
+		for (RollingStats stats : data.get().getRollingStats().values())
+		{
+			stats.fill(window, mode, now);
+			add(target, mode);
+		}
+	}
+
+	/**
+	 * @return every stored, session and all-modes profile, for work that touches all of them
+	 */
+	public List<DelveCalculatorData.DelveProfile> getTrackedProfiles()
+	{
+		List<DelveCalculatorData.DelveProfile> profiles = new ArrayList<>(data.get().getProfiles().values());
+		for (String mode : sessionModes)
+		{
+			profiles.add(sessionProfiles.apply(mode));
+		}
+		profiles.add(allModes);
+		profiles.add(allModesManual);
+		profiles.add(allModesSession);
+		return profiles;
+	}
+
+	/**
+	 * Forgets the modes seen in the last session, called after the session profiles are cleared.
+	 */
+	public void clearSessions()
+	{
+		sessionModes.clear();
+		clear(allModesSession);
+	}
+
+	public RollingStats getRollingStats(String mode)
+	{
+		return data.get().getRollingStats().computeIfAbsent(mode, k -> new RollingStats());
+	}
+
+	/**
+	 * @param level completed level, 9 for waves past 8
+	 */
+	public void recordLevel(String mode, int level, long now)
+	{
+		getRollingStats(mode).recordLevel(level, now);
+		histories.apply(mode).recordLevel(level, now);
+		prepareAlerts(mode);
+		if (level == 9) updateProfiles(mode, DelveCalculatorData.DelveProfile::addWave8);
+		else updateProfiles(mode, p -> p.addKills(level, 1));
+		incrementStored(mode, DelveCounterStore.levelSlot(level), 1);
+		if (alerts != null) alerts.onLevel(getAllProfile(mode), getSessionProfile(mode), level);
+	}
+
+	public void recordDrop(String mode, int itemId, long now)
+	{
+		getRollingStats(mode).recordDrop(itemId, now);
+		histories.apply(mode).recordDrop(itemId, now);
+		prepareAlerts(mode);
+		updateProfiles(mode, p -> p.addDrop(itemId));
+		incrementStored(mode, DelveCounterStore.itemSlot(itemId), 1);
+		if (alerts != null) alerts.onDrop(getAllProfile(mode), getSessionProfile(mode), itemId);
+	}
+
+	/**
+	 * Deaths only go to the history, where the depth strategy measures how risky each level is.
+	 */
+	public void recordDeath(String mode, long now)
+	{
+		histories.apply(mode).recordDeath(now);
+	}
+
+	/**
+	 * Overwrites the All profile's kill counts with the in-game scoreboard.
+	 */
+	public void syncScoreboard(String mode, Map<Integer, Integer> levelKills, int wavesPast8)
+	{
+		DelveCalculatorData.DelveProfile profile = getAllProfile(mode);
+		profile.getLevelKills().putAll(levelKills);
+		profile.setWavesPast8(wavesPast8);
+		profile.invalidateLuck();
+		rebuildAllModes();
+		if (store == null) return;
+		for (Map.Entry<Integer, Integer> entry : levelKills.entrySet())
+		{
+			store.set(mode, DelveCounterStore.levelSlot(entry.getKey()), entry.getValue());
+		}
+		store.set(mode, DelveCounterStore.levelSlot(9), wavesPast8);
+	}
+
+	/**
+	 * Overwrites the All profile's unique counts with the collection log.
+	 */
+	public void syncCollectionLog(String mode, Map<Integer, Integer> obtained)
+	{
+		DelveCalculatorData.DelveProfile profile = getAllProfile(mode);
+		profile.getObtainedUniques().putAll(obtained);
+		profile.invalidateLuck();
+		rebuildAllModes();
+		if (store == null) return;
+		for (Map.Entry<Integer, Integer> entry : obtained.entrySet())
+		{
+			store.set(mode, DelveCounterStore.itemSlot(entry.getKey()), entry.getValue());
+		}
+	}
+
+	/**
+	 * Copies the merged counts of the given profile keys from the store into the All and Manual profiles.
+	 */
+	public void applyStore(Collection<String> keys)
+	{
+		if (store == null) return;
+		for (String key : keys)
+		{
+			DelveCalculatorData.DelveProfile profile = key.endsWith(MANUAL_SUFFIX)
+					? getManualProfile(key.substring(0, key.length() - MANUAL_SUFFIX.length()))
+					: getAllProfile(key);
+			store.apply(key, profile);
+		}
+		if (!keys.isEmpty()) rebuildAllModes();
+	}
+
+	/**
+	 * Fills an empty store from the stored profiles, the first time an account uses it.
+	 */
+	public void seedStore()
+	{
+		if (store == null) return;
+		for (Map.Entry<String, DelveCalculatorData.DelveProfile> entry : data.get().getProfiles().entrySet())
+		{
+			store.seed(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Adds imported totals to the All and Manual profiles. Rows without a mode go to {@code defaultMode}.
+	 */
+	public void mergeImport(Map<String, DelveDataImporter.Totals> totals, String defaultMode)
+	{
+		for (Map.Entry<String, DelveDataImporter.Totals> entry : totals.entrySet())
+		{
+			String mode = entry.getKey().isEmpty() ? defaultMode : entry.getKey();
+			entry.getValue().mergeInto(getAllProfile(mode));
+			entry.getValue().mergeInto(getManualProfile(mode));
+			if (store == null) continue;
+			long[] levelKills = entry.getValue().levelKills;
+			for (int level = 1; level < levelKills.length; level++)
+			{
+				incrementStored(mode, DelveCounterStore.levelSlot(level), (int) Math.min(Integer.MAX_VALUE, levelKills[level]));
+			}
+			long[] drops = entry.getValue().drops;
+			for (int item = 0; item < drops.length; item++)
+			{
+				incrementStored(mode, DelveHistory.DROP_CODE_BASE + item, (int) Math.min(Integer.MAX_VALUE, drops[item]));
+			}
+		}
+		rebuildAllModes();
+	}
+
+	/**
+	 * @return false if the mode has no Manual profile yet
+	 */
+	public boolean resetManual(String mode)
+	{
+		DelveCalculatorData.DelveProfile manualProfile = data.get().getProfiles().get(getManualProfileKey(mode));
+		if (manualProfile == null) return false;
+		manualProfile.getLevelKills().clear();
+		manualProfile.setWavesPast8(0);
+		manualProfile.getObtainedUniques().clear();
+		manualProfile.invalidateLuck();
+		rebuildAllModes();
+		if (store != null)
+		{
+			String key = getManualProfileKey(mode);
+			for (int level = 1; level < RollingStats.LEVEL_SLOTS; level++)
+			{
+				store.set(key, DelveCounterStore.levelSlot(level), 0);
+			}
+			for (int itemId : RollingStats.ITEM_IDS)
+			{
+				store.set(key, DelveCounterStore.itemSlot(itemId), 0);
+			}
+		}
+		return true;
+	}
+
+	// Counted in both the All and Manual profiles, like updateProfiles
+	private void incrementStored(String mode, int slot, int amount)
+	{
+		if (store == null) return;
+		store.increment(mode, slot, amount);
+		store.increment(getManualProfileKey(mode), slot, amount);
+	}
+
+	private void prepareAlerts(String mode)
+	{
+		if (alerts == null) return;
+		alerts.prepare(getAllProfile(mode));
+		alerts.prepare(getSessionProfile(mode));
+	}
+
+	private void updateProfiles(String mode, Consumer<DelveCalculatorData.DelveProfile> action)
+	{
+		action.accept(getAllProfile(mode));
+		action.accept(getManualProfile(mode));
+		action.accept(getSessionProfile(mode));
+		action.accept(allModes);
+		action.accept(allModesManual);
+		action.accept(allModesSession);
+	}
+
+	private static void clear(DelveCalculatorData.DelveProfile profile)
+	{
+		profile.getLevelKills().clear();
+		profile.setWavesPast8(0);
+		profile.getObtainedUniques().clear();
+		profile.invalidateLuck();
+	}
+
+	private static void add(DelveCalculatorData.DelveProfile into, DelveCalculatorData.DelveProfile from)
+	{
+		for (Map.Entry<Integer, Integer> entry : from.getLevelKills().entrySet())
+		{
+			into.addKills(entry.getKey(), entry.getValue());
+		}
+		into.setWavesPast8(into.getWavesPast8() + from.getWavesPast8());
+		for (Map.Entry<Integer, Integer> entry : from.getObtainedUniques().entrySet())
+		{
+			into.getObtainedUniques().merge(entry.getKey(), entry.getValue(), Integer::sum);
+		}
+		into.invalidateLuck();
+	}
+}
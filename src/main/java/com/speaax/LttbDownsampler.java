@@ -0,0 +1,165 @@
+package com.speaax;
+
+import java.util.Arrays;
+
+/**
+ * Incremental Largest-Triangle-Three-Buckets downsampling of a growing series.
+ * Interior points are split into buckets of a fixed power-of-two size, so appending
+ * points only re-selects the last couple of buckets. When the series outgrows the
+ * target, the bucket size doubles and everything is re-selected once, which keeps
+ * the amortized cost per point constant.
+ */
+public class LttbDownsampler
+{
+	private final int threshold;
+	private double[] xs = new double[256];
+	private double[] ys = new double[256];
+	private int size;
+
+	private int bucketSize = 1;
+	private int[] selected;
+	private int selectedBuckets;
+	private int selectedForSize;
+
+	/**
+	 * @param threshold maximum number of points returned, at least 3
+	 */
+	public LttbDownsampler(int threshold)
+	{
+		this.threshold = Math.max(3, threshold);
+		this.selected = new int[this.threshold];
+	}
+
+	public int getThreshold()
+	{
+		return threshold;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public double getX(int index)
+	{
+		return xs[index];
+	}
+
+	public double getY(int index)
+	{
+		return ys[index];
+	}
+
+	public void add(double x, double y)
+	{
+		if (size == xs.length)
+		{
+			xs = Arrays.copyOf(xs, size * 2);
+			ys = Arrays.copyOf(ys, size * 2);
+		}
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	/**
+	 * Brings the selection up to date with the points added so far and returns the
+	 * number of selected points. Their indices are available through {@link #getSelected(int)}.
+	 */
+	public int update()
+	{
+		if (size <= threshold)
+		{
+			selectedForSize = size;
+			return size;
+		}
+
+		int interior = size - 2;
+		int buckets = threshold - 2;
+		int newBucketSize = bucketSize;
+		while ((long) newBucketSize * buckets < interior)
+		{
+			newBucketSize <<= 1;
+		}
+
+		int from;
+		if (newBucketSize != bucketSize || selectedForSize <= threshold)
+		{
+			bucketSize = newBucketSize;
+			from = 0;
+		}
+		else if (selectedForSize == size)
+		{
+			return selectedBuckets + 2;
+		}
+		else
+		{
+			// The old last bucket and the one before it depended on points that changed
+			from = Math.max(0, selectedBuckets - 2);
+		}
+
+		selectedBuckets = (interior + bucketSize - 1) / bucketSize;
+		for (int bucket = from; bucket < selectedBuckets; bucket++)
+		{
+			selected[bucket] = selectInBucket(bucket, bucket == 0 ? 0 : selected[bucket - 1]);
+		}
+		selectedForSize = size;
+		return selectedBuckets + 2;
+	}
+
+	/**
+	 * Index into the full series of the n-th selected point, valid after {@link #update()}.
+	 */
+	public int getSelected(int n)
+	{
+		if (selectedForSize <= threshold) return n;
+		if (n == 0) return 0;
+		if (n > selectedBuckets) return size - 1;
+		return selected[n - 1];
+	}
+
+	private int selectInBucket(int bucket, int previous)
+	{
+		int start = 1 + bucket * bucketSize;
+		int end = Math.min(start + bucketSize, size - 1);
+
+		// Average of the next bucket, or the final point for the last bucket
+		double nextX;
+		double nextY;
+		int nextStart = end;
+		int nextEnd = Math.min(nextStart + bucketSize, size - 1);
+		if (nextStart >= size - 1)
+		{
+			nextX = xs[size - 1];
+			nextY = ys[size - 1];
+		}
+		else
+		{
+			double sumX = 0;
+			double sumY = 0;
+			for (int i = nextStart; i < nextEnd; i++)
+			{
+				sumX += xs[i];
+				sumY += ys[i];
+			}
+			int count = nextEnd - nextStart;
+			nextX = sumX / count;
+			nextY = sumY / count;
+		}
+
+		double ax = xs[previous];
+		double ay = ys[previous];
+		double maxArea = -1;
+		int best = start;
+		for (int i = start; i < end; i++)
+		{
+			double area = Math.abs((ax - nextX) * (ys[i] - ay) - (ax - xs[i]) * (nextY - ay));
+			if (area > maxArea)
+			{
+				maxArea = area;
+				best = i;
+			}
+		}
+		return best;
+	}
+}
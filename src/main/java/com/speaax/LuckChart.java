@@ -0,0 +1,211 @@
+package com.speaax;
+
+import net.runelite.client.ui.ColorScheme;
+import net.runelite.client.ui.FontManager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Plots cumulative expected versus received drops for one unique (or any unique)
+ * against levels completed or wall time. Points are downsampled with LTTB to the
+ * chart width and extended incrementally as new history arrives, so painting only
+ * draws two cached polylines.
+ */
+public class LuckChart extends JPanel
+{
+	public enum Axis { LEVELS, TIME }
+
+	private static final Color EXPECTED_COLOR = new Color(200, 200, 0);
+	private static final Color RECEIVED_COLOR = new Color(0, 200, 0);
+	private static final int PADDING = 4;
+
+	private DelveHistory history;
+	private Axis axis = Axis.LEVELS;
+	private double[] ratesByLevel = new double[RollingStats.LEVEL_SLOTS];
+	private int itemMask;
+
+	// Incremental state for the currently cached width
+	private int cachedWidth = -1;
+	private int readPosition;
+	private long levels;
+	private double expected;
+	private int received;
+	private LttbDownsampler expectedSeries;
+	private LttbDownsampler receivedSeries;
+
+	private boolean pixelsDirty = true;
+	private int projectedHeight = -1;
+	private int[] expectedXs = new int[0];
+	private int[] expectedYs = new int[0];
+	private int expectedCount;
+	private int[] receivedXs = new int[0];
+	private int[] receivedYs = new int[0];
+	private int receivedCount;
+
+	public LuckChart()
+	{
+		setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		setBorder(BorderFactory.createLineBorder(ColorScheme.LIGHT_GRAY_COLOR, 1));
+		setPreferredSize(new Dimension(-1, 120));
+	}
+
+	/**
+	 * @param history the mode's history, or null while it loads
+	 */
+	public void setHistory(DelveHistory history)
+	{
+		if (this.history == history) return;
+		this.history = history;
+		reset();
+	}
+
+	public void setAxis(Axis axis)
+	{
+		if (this.axis == axis) return;
+		this.axis = axis;
+		reset();
+	}
+
+	/**
+	 * @param ratesByLevel expected drops per completion of each level, indexed by level (9 = waves past 8)
+	 * @param itemMask bit per {@link RollingStats#ITEM_IDS} index of drops counted as received
+	 */
+	public void setSeries(double[] ratesByLevel, int itemMask)
+	{
+		if (this.itemMask == itemMask && Arrays.equals(this.ratesByLevel, ratesByLevel)) return;
+		this.ratesByLevel = ratesByLevel.clone();
+		this.itemMask = itemMask;
+		reset();
+	}
+
+	/**
+	 * Pulls any events recorded since the last call into the downsampled series.
+	 */
+	public void refresh()
+	{
+		if (history == null || expectedSeries == null) return;
+		if (history.size() == readPosition) return;
+		readHistory();
+		repaint();
+	}
+
+	private void reset()
+	{
+		cachedWidth = -1;
+		expectedSeries = null;
+		receivedSeries = null;
+		repaint();
+	}
+
+	private void rebuild(int width)
+	{
+		cachedWidth = width;
+		readPosition = 0;
+		levels = 0;
+		expected = 0;
+		received = 0;
+		expectedSeries = new LttbDownsampler(width);
+		receivedSeries = new LttbDownsampler(width);
+		if (history != null) readHistory();
+	}
+
+	private void readHistory()
+	{
+		readPosition = history.read(readPosition, (time, code) -> {
+			if (code == DelveHistory.DEATH_CODE) return;
+			if (code >= DelveHistory.DROP_CODE_BASE)
+			{
+				if ((itemMask & (1 << (code - DelveHistory.DROP_CODE_BASE))) == 0) return;
+				received++;
+			}
+			else
+			{
+				levels++;
+				expected += ratesByLevel[code];
+			}
+			double x = axis == Axis.TIME ? time : levels;
+			expectedSeries.add(x, expected);
+			receivedSeries.add(x, received);
+		});
+		pixelsDirty = true;
+	}
+
+	@Override
+	protected void paintComponent(Graphics g)
+	{
+		super.paintComponent(g);
+		int width = getWidth();
+		int height = getHeight();
+		int plotWidth = width - PADDING * 2;
+		if (plotWidth < 3 || height <= PADDING * 2) return;
+
+		if (plotWidth != cachedWidth || expectedSeries == null)
+		{
+			rebuild(plotWidth);
+		}
+		if (pixelsDirty || height != projectedHeight)
+		{
+			projectPixels(height);
+		}
+
+		g.setFont(FontManager.getRunescapeSmallFont());
+		if (history == null || expectedCount < 2)
+		{
+			g.setColor(ColorScheme.LIGHT_GRAY_COLOR);
+			g.drawString(history == null ? "Loading history..." : "No history yet", PADDING * 2, height / 2);
+			return;
+		}
+
+		g.setColor(EXPECTED_COLOR);
+		g.drawPolyline(expectedXs, expectedYs, expectedCount);
+		g.drawString("Expected", PADDING * 2, PADDING + 10);
+		g.setColor(RECEIVED_COLOR);
+		g.drawPolyline(receivedXs, receivedYs, receivedCount);
+		g.drawString("Received", PADDING * 2, PADDING + 22);
+	}
+
+	private void projectPixels(int height)
+	{
+		int n = expectedSeries.size();
+		pixelsDirty = false;
+		projectedHeight = height;
+		expectedCount = 0;
+		receivedCount = 0;
+		if (n < 2) return;
+
+		double minX = expectedSeries.getX(0);
+		double spanX = Math.max(expectedSeries.getX(n - 1) - minX, 1e-9);
+		double maxY = Math.max(1.0, Math.max(expected, received));
+		int plotHeight = height - PADDING * 2;
+
+		int count = expectedSeries.update();
+		if (expectedXs.length < count)
+		{
+			expectedXs = new int[count];
+			expectedYs = new int[count];
+		}
+		for (int i = 0; i < count; i++)
+		{
+			int index = expectedSeries.getSelected(i);
+			expectedXs[i] = PADDING + (int) ((expectedSeries.getX(index) - minX) / spanX * (cachedWidth - 1));
+			expectedYs[i] = PADDING + plotHeight - (int) (expectedSeries.getY(index) / maxY * plotHeight);
+		}
+		expectedCount = count;
+
+		count = receivedSeries.update();
+		if (receivedXs.length < count)
+		{
+			receivedXs = new int[count];
+			receivedYs = new int[count];
+		}
+		for (int i = 0; i < count; i++)
+		{
+			int index = receivedSeries.getSelected(i);
+			receivedXs[i] = PADDING + (int) ((receivedSeries.getX(index) - minX) / spanX * (cachedWidth - 1));
+			receivedYs[i] = PADDING + plotHeight - (int) (receivedSeries.getY(index) / maxY * plotHeight);
+		}
+		receivedCount = count;
+	}
+}
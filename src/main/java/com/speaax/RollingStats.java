@@ -0,0 +1,396 @@
+package com.speaax;
+
+import java.util.Arrays;
+
+/**
+ * Sliding-window statistics over recent level completions and unique drops.
+ * Every window is a fixed-size ring with running sums, so recording an event or
+ * expiring an old one never rescans history and memory stays constant.
+ */
+public class RollingStats
+{
+	public enum Window
+	{
+		LAST_100("Last 100 levels"),
+		LAST_1000("Last 1,000 levels"),
+		LAST_HOUR("Last hour"),
+		LAST_DAY("Last 24 hours"),
+		LAST_WEEK("Last 7 days");
+
+		private final String label;
+
+		Window(String label)
+		{
+			this.label = label;
+		}
+
+		@Override
+		public String toString()
+		{
+			return label;
+		}
+	}
+
+	// Level 9 is used for waves past 8, matching the drop rate table
+	static final int LEVEL_SLOTS = 10;
+	static final int[] ITEM_IDS = {DelveRates.MOKHAIOTL_CLOTH, DelveRates.EYE_OF_AYAK, DelveRates.AVERNIC_TREADS, DelveRates.DOM};
+
+	private static final long MINUTE = 60_000L;
+
+	private final LevelWindow last100 = new LevelWindow(100);
+	private final LevelWindow last1000 = new LevelWindow(1000);
+	private final TimeWindow lastHour = new TimeWindow(60, MINUTE);
+	private final TimeWindow lastDay = new TimeWindow(96, 15 * MINUTE);
+	private final TimeWindow lastWeek = new TimeWindow(168, 60 * MINUTE);
+
+	public synchronized void recordLevel(int level, long now)
+	{
+		if (level < 1 || level >= LEVEL_SLOTS) return;
+		last100.addLevel(level);
+		last1000.addLevel(level);
+		lastHour.addLevel(level, now);
+		lastDay.addLevel(level, now);
+		lastWeek.addLevel(level, now);
+	}
+
+	public synchronized void recordDrop(int itemId, long now)
+	{
+		int item = itemIndex(itemId);
+		if (item < 0) return;
+		last100.addDrop(item);
+		last1000.addDrop(item);
+		lastHour.addDrop(item, now);
+		lastDay.addDrop(item, now);
+		lastWeek.addDrop(item, now);
+	}
+
+	/**
+	 * Copies the running sums of a window into the given profile so it can be rendered
+	 * like any other view. Cost is independent of how many events the window holds.
+	 */
+	public synchronized void fill(Window window, DelveCalculatorData.DelveProfile target, long now)
+	{
+		int[] levels;
+		int[] drops;
+		switch (window)
+		{
+			case LAST_100:
+				levels = last100.levelSums;
+				drops = last100.dropSums;
+				break;
+			case LAST_1000:
+				levels = last1000.levelSums;
+				drops = last1000.dropSums;
+				break;
+			case LAST_HOUR:
+				lastHour.advance(now);
+				levels = lastHour.levelSums;
+				drops = lastHour.dropSums;
+				break;
+			case LAST_DAY:
+				lastDay.advance(now);
+				levels = lastDay.levelSums;
+				drops = lastDay.dropSums;
+				break;
+			default:
+				lastWeek.advance(now);
+				levels = lastWeek.levelSums;
+				drops = lastWeek.dropSums;
+				break;
+		}
+
+		target.getLevelKills().clear();
+		for (int level = 1; level <= 8; level++)
+		{
+			if (levels[level] > 0) target.getLevelKills().put(level, levels[level]);
+		}
+		target.setWavesPast8(levels[9]);
+
+		target.getObtainedUniques().clear();
+		for (int i = 0; i < ITEM_IDS.length; i++)
+		{
+			if (drops[i] > 0) target.getObtainedUniques().put(ITEM_IDS[i], drops[i]);
+		}
+		target.invalidateLuck();
+	}
+
+	void encode(DelveSnapshotCodec.Output out)
+	{
+		synchronized (this)
+		{
+			last100.encode(out);
+			last1000.encode(out);
+			lastHour.encode(out);
+			lastDay.encode(out);
+			lastWeek.encode(out);
+		}
+	}
+
+	static RollingStats decode(DelveSnapshotCodec.Input in, int version)
+	{
+		RollingStats stats = new RollingStats();
+		stats.last100.decode(in, version);
+		stats.last1000.decode(in, version);
+		stats.lastHour.decode(in);
+		stats.lastDay.decode(in);
+		stats.lastWeek.decode(in);
+		return stats;
+	}
+
+	static int itemIndex(int itemId)
+	{
+		for (int i = 0; i < ITEM_IDS.length; i++)
+		{
+			if (ITEM_IDS[i] == itemId) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * The last N level completions. Drops are counted per unique on the most recent
+	 * completion, and leave the window together with it. Drops seen before the first
+	 * completion are held for the next one.
+	 */
+	static class LevelWindow
+	{
+		private final byte[] levels;
+		// Drops per unique, ITEM_IDS.length per completion slot
+		private final int[] dropCounts;
+		private final int[] pendingDrops = new int[ITEM_IDS.length];
+		private final int[] levelSums = new int[LEVEL_SLOTS];
+		private final int[] dropSums = new int[ITEM_IDS.length];
+		private int head = -1;
+		private int size;
+
+		LevelWindow(int capacity)
+		{
+			levels = new byte[capacity];
+			dropCounts = new int[capacity * ITEM_IDS.length];
+		}
+
+		void addLevel(int level)
+		{
+			head = (head + 1) % levels.length;
+			int base = head * ITEM_IDS.length;
+			if (size == levels.length)
+			{
+				levelSums[levels[head]]--;
+				for (int item = 0; item < ITEM_IDS.length; item++)
+				{
+					dropSums[item] -= dropCounts[base + item];
+				}
+			}
+			else
+			{
+				size++;
+			}
+			levels[head] = (byte) level;
+			levelSums[level]++;
+			// Pending drops are already in the sums
+			for (int item = 0; item < ITEM_IDS.length; item++)
+			{
+				dropCounts[base + item] = pendingDrops[item];
+				pendingDrops[item] = 0;
+			}
+		}
+
+		void addDrop(int item)
+		{
+			addDrops(item, 1);
+		}
+
+		private void addDrops(int item, int drops)
+		{
+			if (size == 0) pendingDrops[item] += drops;
+			else dropCounts[head * ITEM_IDS.length + item] += drops;
+			dropSums[item] += drops;
+		}
+
+		// Completions are written oldest first as (drop mask << 4 | level), followed by the count of each unique in the
+		// mask, then the pending drops. They're replayed on decode, which rebuilds the sums
+		void encode(DelveSnapshotCodec.Output out)
+		{
+			out.writeVarint(size);
+			for (int i = size - 1; i >= 0; i--)
+			{
+				int slot = Math.floorMod(head - i, levels.length);
+				int base = slot * ITEM_IDS.length;
+				int mask = 0;
+				for (int item = 0; item < ITEM_IDS.length; item++)
+				{
+					if (dropCounts[base + item] > 0) mask |= 1 << item;
+				}
+				out.writeVarint(mask << 4 | levels[slot]);
+				for (int item = 0; item < ITEM_IDS.length; item++)
+				{
+					if (dropCounts[base + item] > 0) out.writeVarint(dropCounts[base + item]);
+				}
+			}
+			for (int item = 0; item < ITEM_IDS.length; item++)
+			{
+				out.writeVarint(pendingDrops[item]);
+			}
+		}
+
+		// Version 1 had no counts, a unique in the mask dropped once
+		void decode(DelveSnapshotCodec.Input in, int version)
+		{
+			int count = in.readVarint();
+			for (int i = 0; i < count; i++)
+			{
+				int packed = in.readVarint();
+				int level = packed & 0xF;
+				int mask = packed >>> 4;
+				boolean valid = level >= 1 && level < LEVEL_SLOTS;
+				if (valid) addLevel(level);
+				for (int item = 0; item < ITEM_IDS.length; item++)
+				{
+					if ((mask & (1 << item)) == 0) continue;
+					int drops = version < 2 ? 1 : in.readVarint();
+					if (valid) addDrops(item, drops);
+				}
+			}
+			if (version < 2) return;
+			for (int item = 0; item < ITEM_IDS.length; item++)
+			{
+				addDrops(item, in.readVarint());
+			}
+		}
+	}
+
+	/**
+	 * A time span split into fixed-width buckets. Advancing the clock clears the buckets
+	 * that fell out of the span and subtracts them from the running sums.
+	 */
+	static class TimeWindow
+	{
+		private final long bucketMillis;
+		private final int[] bucketLevels;
+		private final int[] bucketDrops;
+		private final int[] levelSums = new int[LEVEL_SLOTS];
+		private final int[] dropSums = new int[ITEM_IDS.length];
+		private final int buckets;
+		private long headBucket = -1;
+
+		TimeWindow(int buckets, long bucketMillis)
+		{
+			this.buckets = buckets;
+			this.bucketMillis = bucketMillis;
+			this.bucketLevels = new int[buckets * LEVEL_SLOTS];
+			this.bucketDrops = new int[buckets * ITEM_IDS.length];
+		}
+
+		void encode(DelveSnapshotCodec.Output out)
+		{
+			out.writeSignedVarlong(headBucket);
+			out.writeVarint(buckets);
+			for (int value : bucketLevels)
+			{
+				out.writeVarint(value);
+			}
+			for (int value : bucketDrops)
+			{
+				out.writeVarint(value);
+			}
+		}
+
+		void decode(DelveSnapshotCodec.Input in)
+		{
+			headBucket = in.readSignedVarlong();
+			int count = in.readVarint();
+			for (int slot = 0; slot < count; slot++)
+			{
+				for (int level = 0; level < LEVEL_SLOTS; level++)
+				{
+					int value = in.readVarint();
+					if (slot < buckets) bucketLevels[slot * LEVEL_SLOTS + level] = value;
+				}
+			}
+			for (int slot = 0; slot < count; slot++)
+			{
+				for (int item = 0; item < ITEM_IDS.length; item++)
+				{
+					int value = in.readVarint();
+					if (slot < buckets) bucketDrops[slot * ITEM_IDS.length + item] = value;
+				}
+			}
+			rebuildSums();
+		}
+
+		private void rebuildSums()
+		{
+			for (int level = 0; level < LEVEL_SLOTS; level++)
+			{
+				int sum = 0;
+				for (int slot = 0; slot < buckets; slot++)
+				{
+					sum += bucketLevels[slot * LEVEL_SLOTS + level];
+				}
+				levelSums[level] = sum;
+			}
+			for (int item = 0; item < ITEM_IDS.length; item++)
+			{
+				int sum = 0;
+				for (int slot = 0; slot < buckets; slot++)
+				{
+					sum += bucketDrops[slot * ITEM_IDS.length + item];
+				}
+				dropSums[item] = sum;
+			}
+		}
+
+		void addLevel(int level, long now)
+		{
+			int slot = advance(now);
+			bucketLevels[slot * LEVEL_SLOTS + level]++;
+			levelSums[level]++;
+		}
+
+		void addDrop(int item, long now)
+		{
+			int slot = advance(now);
+			bucketDrops[slot * ITEM_IDS.length + item]++;
+			dropSums[item]++;
+		}
+
+		/**
+		 * Moves the head to the bucket containing {@code now} and returns its slot.
+		 * A clock that moves backwards keeps writing into the current head bucket.
+		 */
+		int advance(long now)
+		{
+			long bucket = now / bucketMillis;
+			if (headBucket < 0)
+			{
+				headBucket = bucket;
+			}
+			else if (bucket > headBucket)
+			{
+				long gap = Math.min(bucket - headBucket, buckets);
+				for (long b = 1; b <= gap; b++)
+				{
+					clear((int) ((headBucket + b) % buckets));
+				}
+				headBucket = bucket;
+			}
+			return (int) (headBucket % buckets);
+		}
+
+		private void clear(int slot)
+		{
+			int levelBase = slot * LEVEL_SLOTS;
+			for (int level = 0; level < LEVEL_SLOTS; level++)
+			{
+				levelSums[level] -= bucketLevels[levelBase + level];
+			}
+			Arrays.fill(bucketLevels, levelBase, levelBase + LEVEL_SLOTS, 0);
+
+			int dropBase = slot * ITEM_IDS.length;
+			for (int item = 0; item < ITEM_IDS.length; item++)
+			{
+				dropSums[item] -= bucketDrops[dropBase + item];
+			}
+			Arrays.fill(bucketDrops, dropBase, dropBase + ITEM_IDS.length, 0);
+		}
+	}
+}
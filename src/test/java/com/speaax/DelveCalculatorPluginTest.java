@@ -0,0 +1,159 @@
+package com.speaax;
+
+import net.runelite.api.ChatMessageType;
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.events.ChatMessage;
+import net.runelite.client.Notifier;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.config.ConfigManager;
+import net.runelite.client.game.ItemManager;
+import net.runelite.client.ui.ClientToolbar;
+import net.runelite.client.ui.overlay.OverlayManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Answers;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Starts the plugin against a mocked client, logged out, with the config's defaults and a real
+ * executor. The client thread never runs unless a test replaces it, so nothing it would trigger
+ * (such as loading an account) happens.
+ */
+public class DelveCalculatorPluginTest
+{
+	private static final long TIMEOUT_MILLIS = 5_000;
+	// Generous, startUp runs on the client thread and should only take a few milliseconds
+	private static final long START_UP_BUDGET_MILLIS = 250;
+
+	private final DelveCalculatorPlugin plugin = new DelveCalculatorPlugin();
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+	private final Client client = mock(Client.class);
+
+	@Before
+	public void setUp() throws Exception
+	{
+		when(client.getGameState()).thenReturn(GameState.LOGIN_SCREEN);
+		inject("client", client);
+		inject("clientThread", mock(ClientThread.class));
+		// Config getters return their defaults, setters do nothing
+		inject("config", mock(DelveCalculatorConfig.class, invocation -> invocation.getMethod().isDefault()
+				? invocation.callRealMethod()
+				: Answers.RETURNS_DEFAULTS.answer(invocation)));
+		inject("clientToolbar", mock(ClientToolbar.class));
+		inject("overlayManager", mock(OverlayManager.class));
+		inject("notifier", mock(Notifier.class));
+		inject("itemManager", mock(ItemManager.class));
+		inject("executor", executor);
+		inject("configManager", mock(ConfigManager.class));
+	}
+
+	@After
+	public void shutDown() throws Exception
+	{
+		plugin.shutDown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void startUpLeavesSwingAndLoadingToOtherThreads() throws Exception
+	{
+		List<Thread> loadThreads = new CopyOnWriteArrayList<>();
+		ConfigManager configManager = mock(ConfigManager.class);
+		// The first thing an account load reads
+		when(configManager.getRSProfileKey()).thenAnswer(invocation -> {
+			loadThreads.add(Thread.currentThread());
+			return null;
+		});
+		inject("configManager", configManager);
+		// Enabled while logged in, with client thread tasks run straight away, so an account load is asked for
+		when(client.getGameState()).thenReturn(GameState.LOGGED_IN);
+		inject("clientThread", new ClientThread()
+		{
+			@Override
+			public void invokeLater(Runnable runnable)
+			{
+				runnable.run();
+			}
+		});
+
+		// Timed on the second start, once classes are loaded
+		plugin.startUp();
+		plugin.shutDown();
+		executor.submit(() -> {}).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		loadThreads.clear();
+
+		long start = System.nanoTime();
+		plugin.startUp();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(0, ((DelveCalculatorPanel) get("panel")).getComponentCount());
+
+		executor.submit(() -> {}).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertEquals(1, loadThreads.size());
+		assertNotSame(Thread.currentThread(), loadThreads.get(0));
+		assertTrue("startUp took " + millis + " ms", millis <= START_UP_BUDGET_MILLIS);
+	}
+
+	@Test
+	public void overlayUpdatesWhilePanelIsClosed() throws Exception
+	{
+		plugin.startUp();
+		DelveOverlay overlay = plugin.getOverlay();
+		for (int level = 1; level <= 8; level++)
+		{
+			chat("Delve level: " + level + " duration: 1:00");
+		}
+
+		// Cloth, the first unique, drops from level 2 on
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!hasExpectedDrops(overlay) && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals("Cloth", overlay.getText(0, 0));
+		assertNotEquals("0.00", overlay.getText(0, 1));
+		assertEquals(0, ((DelveCalculatorPanel) get("panel")).getComponentCount());
+	}
+
+	private static boolean hasExpectedDrops(DelveOverlay overlay)
+	{
+		String expected = overlay.getText(0, 1);
+		return expected != null && !expected.equals("0.00");
+	}
+
+	private void chat(String message)
+	{
+		ChatMessage event = new ChatMessage();
+		event.setType(ChatMessageType.GAMEMESSAGE);
+		event.setMessage(message);
+		plugin.onChatMessage(event);
+	}
+
+	private void inject(String name, Object value) throws ReflectiveOperationException
+	{
+		Field field = DelveCalculatorPlugin.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(plugin, value);
+	}
+
+	private Object get(String name) throws ReflectiveOperationException
+	{
+		Field field = DelveCalculatorPlugin.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(plugin);
+	}
+}
@@ -0,0 +1,76 @@
+package com.speaax;
+
+import net.runelite.api.ItemID;
+import net.runelite.client.util.Text;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The core classes stay free of the client and Swing, so the boundary is their import list. The
+ * client is on the test classpath, which lets the local stand-ins be checked against it.
+ */
+public class DelveCoreTest
+{
+	private static final Path SOURCES = Paths.get("src", "main", "java", "com", "speaax");
+	private static final String[] CORE = {
+		"DelveAlerts", "DelveCalculator", "DelveCalculatorData", "DelveCounterStore", "DelveDataExporter",
+		"DelveDataImporter", "DelveDepthStrategy", "DelveDropDeduper", "DelveEventParser", "DelveEventQueue",
+		"DelveHistory", "DelveLegacyJson", "DelveLuckScore", "DelveMetrics", "DelvePlanner", "DelvePriceCache",
+		"DelveRateEstimator", "DelveRateRecompute", "DelveRates", "DelveSessionStore", "DelveSnapshotCodec",
+		"DelveTrace", "DelveTracker", "LttbDownsampler", "RollingStats"
+	};
+	private static final String[] FORBIDDEN = {"import net.runelite.", "import javax.swing.", "import java.awt."};
+
+	@Test
+	public void coreClassesDontImportTheClient() throws IOException
+	{
+		for (String name : CORE)
+		{
+			Path source = SOURCES.resolve(name + ".java");
+			assertTrue("Missing " + source, Files.isRegularFile(source));
+			for (String line : Files.readAllLines(source, StandardCharsets.UTF_8))
+			{
+				for (String forbidden : FORBIDDEN)
+				{
+					assertFalse(name + ": " + line, line.startsWith(forbidden));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void itemIdsMatchTheClient()
+	{
+		assertEquals(ItemID.MOKHAIOTL_CLOTH, DelveRates.MOKHAIOTL_CLOTH);
+		assertEquals(ItemID.EYE_OF_AYAK_UNCHARGED, DelveRates.EYE_OF_AYAK);
+		assertEquals(ItemID.AVERNIC_TREADS, DelveRates.AVERNIC_TREADS);
+		assertEquals(ItemID.DOM, DelveRates.DOM);
+	}
+
+	@Test
+	public void removeTagsMatchesTheClient()
+	{
+		String[] messages = {
+			"Delve level: <col=ef1020>8+</col> duration: <col=ef1020>1:02.40</col>",
+			"<img=2>You have a funny feeling like you're being followed.",
+			"No tags at all",
+			"An unclosed <tag",
+			"a < b > c <",
+			"",
+			"<><col=ff0000></col>"
+		};
+		for (String message : messages)
+		{
+			assertEquals(message, Text.removeTags(message), DelveEventParser.removeTags(message));
+		}
+	}
+}
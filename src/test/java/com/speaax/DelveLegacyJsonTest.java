@@ -0,0 +1,147 @@
+package com.speaax;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stored data written as JSON by reflective Gson, before the snapshot format, must read back
+ * unchanged and survive being rewritten as a snapshot.
+ */
+public class DelveLegacyJsonTest
+{
+	private static final int PROFILES = 2_000;
+	private static final long NOW = 1_700_000_000_000L;
+	private static final long WEEK = 7 * 24 * 60 * 60 * 1000L;
+
+	// How the data was written before the snapshot format
+	private final Gson reflective = new Gson();
+	private final DelveSnapshotCodec codec = new DelveSnapshotCodec();
+
+	@Test
+	public void legacyJsonRoundTripsThroughSnapshot()
+	{
+		Random random = new Random(31);
+		DelveCalculatorData data = generateProfiles(random);
+		String json = reflective.toJson(data);
+
+		DelveCalculatorData read = codec.decode(json);
+		assertSameData(data, read);
+
+		// Rolling stats were never stored as JSON, but the snapshot they're rewritten into carries them
+		for (String mode : new String[]{"STANDARD", "IRONMAN", "GROUP_IRONMAN"})
+		{
+			RollingStats stats = generateStats(random);
+			data.getRollingStats().put(mode, stats);
+			read.getRollingStats().put(mode, stats);
+		}
+		DelveCalculatorData rewritten = codec.decode(codec.encode(read));
+		assertSameData(data, rewritten);
+	}
+
+	@Test
+	public void legacyJsonWithoutProfilesIsEmpty()
+	{
+		DelveCalculatorData read = codec.decode("{}");
+		assertEquals(0, read.getProfiles().size());
+		assertEquals(0, read.getRollingStats().size());
+	}
+
+	@Test(expected = JsonParseException.class)
+	public void rejectsNewerJsonSchema()
+	{
+		codec.decode("{\"version\":2,\"profiles\":{\"STANDARD\":{\"kills\":[0,5]}}}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNewerSnapshotVersion()
+	{
+		DelveSnapshotCodec.Output out = new DelveSnapshotCodec.Output();
+		out.writeVarint(DelveSnapshotCodec.FORMAT_VERSION + 1);
+		codec.decode(DelveSnapshotCodec.PREFIX + Base64.getEncoder().encodeToString(deflate(out.toByteArray())));
+	}
+
+	private static DelveCalculatorData generateProfiles(Random random)
+	{
+		DelveCalculatorData data = new DelveCalculatorData();
+		for (int i = 0; i < PROFILES; i++)
+		{
+			// Some profiles were saved before they had a name
+			DelveCalculatorData.DelveProfile profile = new DelveCalculatorData.DelveProfile(i % 10 == 0 ? null : "Profile " + i, false);
+			for (int level = 1; level <= 8; level++)
+			{
+				if (random.nextInt(4) != 0) profile.getLevelKills().put(level, random.nextInt(100_000));
+			}
+			profile.setWavesPast8(random.nextInt(5_000));
+			for (int itemId : RollingStats.ITEM_IDS)
+			{
+				if (random.nextBoolean()) profile.getObtainedUniques().put(itemId, random.nextInt(50));
+			}
+			data.getProfiles().put("PROFILE_" + i, profile);
+		}
+		return data;
+	}
+
+	private static RollingStats generateStats(Random random)
+	{
+		RollingStats stats = new RollingStats();
+		long time = NOW - WEEK;
+		for (int i = 0; i < 3_000; i++)
+		{
+			time += random.nextInt((int) (2 * WEEK / 3_000));
+			int level = 1 + random.nextInt(9);
+			stats.recordLevel(level, time);
+			if (level > 1 && random.nextInt(20) == 0) stats.recordDrop(RollingStats.ITEM_IDS[random.nextInt(RollingStats.ITEM_IDS.length)], time);
+		}
+		return stats;
+	}
+
+	private static void assertSameData(DelveCalculatorData expected, DelveCalculatorData actual)
+	{
+		assertEquals(expected.getProfiles().keySet(), actual.getProfiles().keySet());
+		for (Map.Entry<String, DelveCalculatorData.DelveProfile> entry : expected.getProfiles().entrySet())
+		{
+			assertSameProfile(entry.getKey(), entry.getValue(), actual.getProfiles().get(entry.getKey()));
+		}
+		assertEquals(expected.getRollingStats().keySet(), actual.getRollingStats().keySet());
+		for (Map.Entry<String, RollingStats> entry : expected.getRollingStats().entrySet())
+		{
+			for (RollingStats.Window window : RollingStats.Window.values())
+			{
+				DelveCalculatorData.DelveProfile want = new DelveCalculatorData.DelveProfile();
+				DelveCalculatorData.DelveProfile got = new DelveCalculatorData.DelveProfile();
+				entry.getValue().fill(window, want, NOW);
+				actual.getRollingStats().get(entry.getKey()).fill(window, got, NOW);
+				assertSameProfile(entry.getKey() + " " + window, want, got);
+			}
+		}
+	}
+
+	private static void assertSameProfile(String key, DelveCalculatorData.DelveProfile expected, DelveCalculatorData.DelveProfile actual)
+	{
+		assertEquals(key, expected.getName(), actual.getName());
+		assertEquals(key, expected.getLevelKills(), actual.getLevelKills());
+		assertEquals(key, expected.getWavesPast8(), actual.getWavesPast8());
+		assertEquals(key, expected.getObtainedUniques(), actual.getObtainedUniques());
+	}
+
+	private static byte[] deflate(byte[] bytes)
+	{
+		Deflater deflater = new Deflater();
+		deflater.setInput(bytes);
+		deflater.finish();
+		byte[] buffer = new byte[64];
+		int length = deflater.deflate(buffer);
+		deflater.end();
+		byte[] compressed = new byte[length];
+		System.arraycopy(buffer, 0, compressed, 0, length);
+		return compressed;
+	}
+}
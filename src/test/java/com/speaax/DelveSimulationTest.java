@@ -0,0 +1,262 @@
+package com.speaax;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveTask;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Seeded Monte Carlo check of the expected-drop math. Simulates delve runs against the drop rate
+ * table, feeds every completion and drop through {@link DelveTracker}, and compares the drops
+ * received with {@link DelveCalculator}'s expectations. Runs are split into fixed chunks with their
+ * own {@link SplittableRandom}, so results for a seed don't depend on the number of threads.
+ *
+ * <p>Each round checks that:</p>
+ * <ul>
+ *     <li>the All, Manual and Session profiles saw identical totals,</li>
+ *     <li>the total drops of each unique are within {@value #MAX_Z} standard deviations of the expectation,</li>
+ *     <li>the per-chunk residuals have the spread a correct variance predicts (chi-square over chunks).</li>
+ * </ul>
+ *
+ * <p>By default one small round runs, quick enough for every build. {@code -Ddelve.soak=true} runs
+ * the full soak test instead: several rounds of {@value #SOAK_RUNS} runs, where heap use after a GC
+ * must not keep growing, and prints each round's tracker throughput. {@code delve.runs}, {@code delve.rounds} and {@code delve.seed} override
+ * either.</p>
+ */
+public class DelveSimulationTest
+{
+	private static final int CHUNKS = 256;
+	private static final double MAX_Z = 4.5;
+	// Chance of dying on any level, and of stopping after each wave past 8
+	private static final double DEATH_CHANCE = 0.04;
+	private static final double STOP_CHANCE = 0.25;
+	private static final long MAX_HEAP_GROWTH = 32L << 20;
+	private static final String MODE = "STANDARD";
+	private static final long RUNS = 20_000;
+	private static final long SOAK_RUNS = 2_000_000;
+	private static final int SOAK_ROUNDS = 3;
+
+	private static final int[] ITEM_IDS = RollingStats.ITEM_IDS;
+
+	@Test
+	public void dropsMatchExpectations()
+	{
+		boolean soak = Boolean.getBoolean("delve.soak");
+		long runs = Long.getLong("delve.runs", soak ? SOAK_RUNS : RUNS);
+		int rounds = Integer.getInteger("delve.rounds", soak ? SOAK_ROUNDS : 1);
+		long seed = Long.getLong("delve.seed", 1);
+
+		long firstHeap = -1;
+		SplittableRandom root = new SplittableRandom(seed);
+		for (int round = 1; round <= rounds; round++)
+		{
+			// Split sequentially so every chunk's stream is fixed by the seed alone
+			List<Chunk> chunks = new ArrayList<>(CHUNKS);
+			for (int c = 0; c < CHUNKS; c++)
+			{
+				long count = runs / CHUNKS + (c < runs % CHUNKS ? 1 : 0);
+				chunks.add(new Chunk(root.split(), count));
+			}
+
+			List<Result> results = new ArrayList<>(CHUNKS);
+			long start = System.nanoTime();
+			for (Chunk chunk : chunks)
+			{
+				chunk.fork();
+			}
+			for (Chunk chunk : chunks)
+			{
+				results.add(chunk.join());
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			check(round, results);
+
+			if (soak)
+			{
+				long events = 0;
+				for (Result result : results)
+				{
+					events += result.events;
+				}
+				System.out.printf("Round %d: %,d runs, %,d events in %.2f s, %,.0f events/s%n", round, runs, events, seconds, events / seconds);
+			}
+
+			if (rounds > 1)
+			{
+				long heap = usedHeapAfterGc();
+				if (firstHeap < 0) firstHeap = heap;
+				assertTrue(String.format("Round %d: heap grew by %d KB since round 1", round, (heap - firstHeap) >> 10),
+						heap - firstHeap <= MAX_HEAP_GROWTH);
+			}
+		}
+	}
+
+	private static void check(int round, List<Result> results)
+	{
+		DelveCalculatorData.DelveProfile total = new DelveCalculatorData.DelveProfile("Total", false);
+		for (Result result : results)
+		{
+			assertTrue("Round " + round + ": All, Manual and Session profiles disagree", result.consistent);
+			merge(total, result.profile);
+		}
+
+		for (int itemId : ITEM_IDS)
+		{
+			double expected = DelveCalculator.getExpected(total, itemId);
+			double variance = variance(total, itemId);
+			int actual = total.getObtainedUniques().getOrDefault(itemId, 0);
+			double z = (actual - expected) / Math.sqrt(variance);
+
+			// Sum of squared per-chunk z-scores is chi-square with one degree of freedom per chunk
+			double chiSquare = 0;
+			int degrees = 0;
+			for (Result result : results)
+			{
+				double chunkVariance = variance(result.profile, itemId);
+				if (chunkVariance == 0) continue;
+				double residual = DelveCalculator.getLuck(result.profile, new int[]{itemId});
+				chiSquare += residual * residual / chunkVariance;
+				degrees++;
+			}
+			double chiZ = degrees == 0 ? 0 : (chiSquare - degrees) / Math.sqrt(2.0 * degrees);
+
+			String label = String.format("Round %d: %s expected %.1f, received %d, z %+.2f, chunk chi-square %.1f/%d (z %+.2f)",
+					round, itemName(itemId), expected, actual, z, chiSquare, degrees, chiZ);
+			assertTrue(label, Math.abs(z) <= MAX_Z);
+			assertTrue(label, Math.abs(chiZ) <= MAX_Z);
+		}
+	}
+
+	// Drops of one item are a sum of independent Bernoulli trials, one per completion
+	private static double variance(DelveCalculatorData.DelveProfile profile, int itemId)
+	{
+		double variance = 0;
+		for (Map.Entry<Integer, DelveRates.DropRates> entry : DelveRates.getDropRates().entrySet())
+		{
+			double rate = entry.getValue().getRate(itemId);
+			variance += DelveCalculator.getKills(profile, entry.getKey()) * rate * (1 - rate);
+		}
+		return variance;
+	}
+
+	private static void merge(DelveCalculatorData.DelveProfile target, DelveCalculatorData.DelveProfile source)
+	{
+		source.getLevelKills().forEach(target::addKills);
+		target.setWavesPast8(target.getWavesPast8() + source.getWavesPast8());
+		source.getObtainedUniques().forEach((itemId, count) -> target.getObtainedUniques().merge(itemId, count, Integer::sum));
+	}
+
+	private static String itemName(int itemId)
+	{
+		for (Map.Entry<String, Integer> entry : DelveRates.getUniqueDropsMap().entrySet())
+		{
+			if (entry.getValue() == itemId) return entry.getKey();
+		}
+		return String.valueOf(itemId);
+	}
+
+	private static long usedHeapAfterGc()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static class Result
+	{
+		final DelveCalculatorData.DelveProfile profile;
+		final long events;
+		final boolean consistent;
+
+		Result(DelveCalculatorData.DelveProfile profile, long events, boolean consistent)
+		{
+			this.profile = profile;
+			this.events = events;
+			this.consistent = consistent;
+		}
+	}
+
+	private static class Chunk extends RecursiveTask<Result>
+	{
+		// Histories are append-only, so they are swapped out before they grow past this
+		private static final int HISTORY_LIMIT = 1 << 16;
+
+		private final SplittableRandom random;
+		private final long runs;
+		private final DelveCalculatorData data = new DelveCalculatorData();
+		private final DelveCalculatorData.DelveProfile session = new DelveCalculatorData.DelveProfile("Session", false);
+		private DelveHistory history = new DelveHistory(null);
+
+		Chunk(SplittableRandom random, long runs)
+		{
+			this.random = random;
+			this.runs = runs;
+		}
+
+		@Override
+		protected Result compute()
+		{
+			DelveTracker tracker = new DelveTracker(() -> data, mode -> session, mode -> history);
+			long events = 0;
+			long now = 0;
+			for (long run = 0; run < runs; run++)
+			{
+				for (int level = 1; level <= 9; level++)
+				{
+					if (random.nextDouble() < DEATH_CHANCE) break;
+					now += 60_000;
+					events += complete(tracker, level, now);
+					if (level == 9 && random.nextDouble() >= STOP_CHANCE) level--;
+				}
+				if (history.size() > HISTORY_LIMIT) history = new DelveHistory(null);
+			}
+
+			DelveCalculatorData.DelveProfile all = tracker.getAllProfile(MODE);
+			boolean consistent = sameTotals(all, tracker.getManualProfile(MODE)) && sameTotals(all, session);
+			return new Result(all, events, consistent);
+		}
+
+		private int complete(DelveTracker tracker, int level, long now)
+		{
+			tracker.recordLevel(MODE, level, now);
+			DelveRates.DropRates rates = DelveRates.forLevel(level);
+			if (rates == null) return 1;
+
+			int events = 1;
+			// Cloth, eye and treads share one roll, Dom rolls on its own
+			double roll = random.nextDouble();
+			double bound = 0;
+			for (int i = 0; i < 3; i++)
+			{
+				bound += rates.getRate(ITEM_IDS[i]);
+				if (roll < bound)
+				{
+					tracker.recordDrop(MODE, ITEM_IDS[i], now);
+					events++;
+					break;
+				}
+			}
+			if (random.nextDouble() < rates.dom)
+			{
+				tracker.recordDrop(MODE, DelveRates.DOM, now);
+				events++;
+			}
+			return events;
+		}
+
+		private static boolean sameTotals(DelveCalculatorData.DelveProfile a, DelveCalculatorData.DelveProfile b)
+		{
+			return a.getLevelKills().equals(b.getLevelKills())
+					&& a.getWavesPast8() == b.getWavesPast8()
+					&& a.getObtainedUniques().equals(b.getObtainedUniques());
+		}
+	}
+}
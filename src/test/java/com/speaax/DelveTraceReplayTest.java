@@ -0,0 +1,194 @@
+package com.speaax;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Replays a recorded trace through the event parser and the tracker the panel uses, without a
+ * client.
+ *
+ * <p>{@code delve-session.trace} holds a standard mode run from level 1 to two waves past 8 with a
+ * pet message shown twice, a claim screen with a cloth and an eye opened twice, and a death. A
+ * second run reaches level 3 and opens a cloth twice, followed by pet messages that aren't drops
+ * (spam, out of the region) and an ironman run with treads. Loot IDs are mapped to names here,
+ * as the item manager does in the client.</p>
+ *
+ * <p>{@code -Ddelve.trace=<path>} also replays a trace recorded by the plugin, {@code delve.passes}
+ * times (default {@value #PASSES}) after one untimed pass, and prints the events per second.</p>
+ */
+public class DelveTraceReplayTest
+{
+	private static final int PASSES = 20;
+
+	private final DelveCalculatorData data = new DelveCalculatorData();
+	private final Map<String, DelveCalculatorData.DelveProfile> sessions = new HashMap<>();
+	private final Map<String, DelveHistory> histories = new HashMap<>();
+	private final DelveMetrics metrics = new DelveMetrics();
+	private final Map<Integer, String> itemNames = new HashMap<>();
+	private DelveTrace.Player player;
+	private int deaths;
+
+	@Before
+	public void loadTrace() throws IOException
+	{
+		itemNames.put(DelveRates.MOKHAIOTL_CLOTH, "Mokhaiotl cloth");
+		itemNames.put(DelveRates.EYE_OF_AYAK, "Eye of ayak (uncharged)");
+		itemNames.put(DelveRates.AVERNIC_TREADS, "Avernic treads");
+		itemNames.put(995, "Coins");
+		player = new DelveTrace.Player(readTrace());
+	}
+
+	@Test
+	public void replaysKillsUniquesAndDuplicates()
+	{
+		DelveTracker tracker = newTracker();
+		assertEquals(26, player.replay(newParser(tracker)));
+
+		Map<Integer, Integer> standardKills = new HashMap<>();
+		standardKills.put(1, 2);
+		standardKills.put(2, 2);
+		standardKills.put(3, 2);
+		for (int level = 4; level <= 8; level++)
+		{
+			standardKills.put(level, 1);
+		}
+		Map<Integer, Integer> standardUniques = new HashMap<>();
+		standardUniques.put(DelveRates.MOKHAIOTL_CLOTH, 2);
+		standardUniques.put(DelveRates.EYE_OF_AYAK, 1);
+		standardUniques.put(DelveRates.DOM, 1);
+		assertProfile(tracker.getAllProfile("STANDARD"), standardKills, 2, standardUniques);
+		assertProfile(tracker.getManualProfile("STANDARD"), standardKills, 2, standardUniques);
+
+		Map<Integer, Integer> ironmanKills = new HashMap<>();
+		ironmanKills.put(1, 1);
+		ironmanKills.put(2, 1);
+		Map<Integer, Integer> ironmanUniques = new HashMap<>();
+		ironmanUniques.put(DelveRates.AVERNIC_TREADS, 1);
+		assertProfile(tracker.getAllProfile("IRONMAN"), ironmanKills, 0, ironmanUniques);
+
+		// The repeated pet message and the three claim screen drops seen again
+		assertEquals(4, metrics.get(DelveMetrics.Counter.DROPS_SUPPRESSED));
+		assertEquals(1, deaths);
+	}
+
+	@Test
+	public void replaysRecordedTrace() throws IOException
+	{
+		String path = System.getProperty("delve.trace");
+		Assume.assumeTrue("No -Ddelve.trace given", path != null);
+		player = new DelveTrace.Player(Files.readAllBytes(Paths.get(path)));
+		int passes = Integer.getInteger("delve.passes", PASSES);
+
+		// Warms up the parser and tracker
+		player.replay(newParser(newTracker()));
+		long events = 0;
+		long start = System.nanoTime();
+		for (int pass = 0; pass < passes; pass++)
+		{
+			events += player.replay(newParser(newTracker()));
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Replayed %s: %,d events in %.3f s, %,.0f events/s%n", path, events, seconds, events / seconds);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTruncatedTrace() throws IOException
+	{
+		byte[] trace = readTrace();
+		player = new DelveTrace.Player(Arrays.copyOf(trace, trace.length - 3));
+		player.replay(newParser(newTracker()));
+	}
+
+	private DelveTracker newTracker()
+	{
+		return new DelveTracker(() -> data,
+				mode -> sessions.computeIfAbsent(mode, k -> new DelveCalculatorData.DelveProfile("Session", false)),
+				mode -> histories.computeIfAbsent(mode, k -> new DelveHistory(null)));
+	}
+
+	private DelveEventParser newParser(DelveTracker tracker)
+	{
+		return new DelveEventParser(new TrackerListener(tracker), itemNames::get, player::getMode, metrics);
+	}
+
+	private static void assertProfile(DelveCalculatorData.DelveProfile profile, Map<Integer, Integer> levelKills, int wavesPast8,
+									  Map<Integer, Integer> uniques)
+	{
+		assertEquals(profile.getName() + " kills", levelKills, profile.getLevelKills());
+		assertEquals(profile.getName() + " waves past 8", wavesPast8, profile.getWavesPast8());
+		assertEquals(profile.getName() + " uniques", uniques, profile.getObtainedUniques());
+	}
+
+	private static byte[] readTrace() throws IOException
+	{
+		try (InputStream in = DelveTraceReplayTest.class.getResourceAsStream("delve-session.trace"))
+		{
+			assertNotNull("Missing trace fixture", in);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = in.read(buffer)) > 0)
+			{
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Applies events through the same tracker the panel uses, timed by the trace.
+	 */
+	private class TrackerListener implements DelveEventParser.Listener
+	{
+		private final DelveTracker tracker;
+
+		TrackerListener(DelveTracker tracker)
+		{
+			this.tracker = tracker;
+		}
+
+		@Override
+		public void onLevelComplete(String mode, int level)
+		{
+			tracker.recordLevel(mode, level, player.getTime());
+		}
+
+		@Override
+		public void onUniqueDrop(String mode, int itemId)
+		{
+			tracker.recordDrop(mode, itemId, player.getTime());
+		}
+
+		@Override
+		public void onDeath(String mode)
+		{
+			deaths++;
+			tracker.recordDeath(mode, player.getTime());
+		}
+
+		@Override
+		public void onScoreboard(String mode, Map<Integer, Integer> levelKills, int wavesPast8)
+		{
+			tracker.syncScoreboard(mode, levelKills, wavesPast8);
+		}
+
+		@Override
+		public void onCollectionLog(String mode, Map<Integer, Integer> obtained)
+		{
+			tracker.syncCollectionLog(mode, obtained);
+		}
+	}
+}
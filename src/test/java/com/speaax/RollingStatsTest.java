@@ -0,0 +1,91 @@
+package com.speaax;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drops in the level windows are counted per unique on the completion they follow, and leave the
+ * window together with it.
+ */
+public class RollingStatsTest
+{
+	private static final long NOW = 1_700_000_000_000L;
+
+	private final RollingStats stats = new RollingStats();
+
+	@Test
+	public void countsIdenticalUniquesOnOneCompletion()
+	{
+		stats.recordLevel(8, NOW);
+		stats.recordDrop(DelveRates.MOKHAIOTL_CLOTH, NOW);
+		stats.recordDrop(DelveRates.MOKHAIOTL_CLOTH, NOW);
+
+		assertEquals(2, cloths(RollingStats.Window.LAST_100));
+		assertEquals(2, cloths(RollingStats.Window.LAST_HOUR));
+
+		// Both leave with their completion
+		for (int i = 0; i < 100; i++)
+		{
+			stats.recordLevel(1, NOW);
+		}
+		assertEquals(0, cloths(RollingStats.Window.LAST_100));
+		assertEquals(2, cloths(RollingStats.Window.LAST_1000));
+	}
+
+	@Test
+	public void keepsDropsBeforeTheFirstCompletion()
+	{
+		stats.recordDrop(DelveRates.EYE_OF_AYAK, NOW);
+		assertEquals(1, drops(RollingStats.Window.LAST_100, DelveRates.EYE_OF_AYAK));
+
+		// Held by the next completion, so they still leave with it
+		stats.recordLevel(8, NOW);
+		for (int i = 0; i < 99; i++)
+		{
+			stats.recordLevel(1, NOW);
+		}
+		assertEquals(1, drops(RollingStats.Window.LAST_100, DelveRates.EYE_OF_AYAK));
+		stats.recordLevel(1, NOW);
+		assertEquals(0, drops(RollingStats.Window.LAST_100, DelveRates.EYE_OF_AYAK));
+	}
+
+	@Test
+	public void snapshotKeepsDropCounts()
+	{
+		stats.recordDrop(DelveRates.DOM, NOW);
+		DelveSnapshotCodec codec = new DelveSnapshotCodec();
+		DelveCalculatorData data = new DelveCalculatorData();
+		data.getRollingStats().put("STANDARD", stats);
+		RollingStats pending = codec.decode(codec.encode(data)).getRollingStats().get("STANDARD");
+		assertEquals(1, drops(pending, RollingStats.Window.LAST_100, DelveRates.DOM));
+
+		stats.recordLevel(8, NOW);
+		stats.recordDrop(DelveRates.MOKHAIOTL_CLOTH, NOW);
+		stats.recordDrop(DelveRates.MOKHAIOTL_CLOTH, NOW);
+		stats.recordDrop(DelveRates.MOKHAIOTL_CLOTH, NOW);
+		RollingStats read = codec.decode(codec.encode(data)).getRollingStats().get("STANDARD");
+		for (RollingStats.Window window : RollingStats.Window.values())
+		{
+			assertEquals(window.toString(), 3, drops(read, window, DelveRates.MOKHAIOTL_CLOTH));
+			assertEquals(window.toString(), 1, drops(read, window, DelveRates.DOM));
+		}
+	}
+
+	private int cloths(RollingStats.Window window)
+	{
+		return drops(window, DelveRates.MOKHAIOTL_CLOTH);
+	}
+
+	private int drops(RollingStats.Window window, int itemId)
+	{
+		return drops(stats, window, itemId);
+	}
+
+	private static int drops(RollingStats stats, RollingStats.Window window, int itemId)
+	{
+		DelveCalculatorData.DelveProfile profile = new DelveCalculatorData.DelveProfile();
+		stats.fill(window, profile, NOW);
+		return profile.getObtainedUniques().getOrDefault(itemId, 0);
+	}
+}